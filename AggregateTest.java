@@ -0,0 +1,289 @@
+/**
+ * Class to test whether the total number of genes of interest across all structural variants
+ * is enriched. The per-variant distributions are treated as independent, so the null
+ * distribution of the total is the convolution of their histograms, found without any
+ * further sampling. Large convolutions are done with a fast Fourier transform
+ * @author Stephen Pollo
+ */
+
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+
+public class AggregateTest {
+	
+	// Convolutions where both distributions have more values than this use the FFT
+	public static final int FFT_THRESHOLD = 64;
+	
+	private ArrayList<double[]> distributions = new ArrayList<double[]>();
+	private double [] total = null;
+	
+	/**
+	 * Adds the distribution of one structural variant to the test
+	 * @param counts the counts of the gene of interest in every sample of the variant
+	 */
+	public synchronized void add(int[] counts) {
+		if (counts.length == 0) {
+			return;
+		}
+		int max = 0;
+		for (int i = 0; i < counts.length; i++) {
+			max = Math.max(max, counts[i]);
+		}
+		int [] histogram = new int[max + 1];
+		for (int i = 0; i < counts.length; i++) {
+			histogram[counts[i]]++;
+		}
+		double [] probs = new double[max + 1];
+		for (int i = 0; i <= max; i++) {
+			probs[i] = (double)histogram[i] / counts.length;
+		}
+		distributions.add(probs);
+		total = null;
+	}
+	
+	/**
+	 * Getter for the null distribution of the total count, convolving the added distributions if needed
+	 * @return the probability of every total count, starting at 0
+	 */
+	public synchronized double[] getTotalDistribution() {
+		if (total == null) {
+			total = convolveAll();
+		}
+		return total;
+	}
+	
+	/**
+	 * Convolves the added distributions in pairs, so the distributions being convolved
+	 * stay about the same size and the FFT is used where it pays off
+	 * @return the distribution of the sum of the added distributions
+	 */
+	private double[] convolveAll() {
+		if (distributions.isEmpty()) {
+			double [] none = {1.0};
+			return none;
+		}
+		ArrayList<double[]> level = new ArrayList<double[]>(distributions);
+		while (level.size() > 1) {
+			ArrayList<double[]> next = new ArrayList<double[]>((level.size() + 1) / 2);
+			for (int i = 0; i + 1 < level.size(); i += 2) {
+				next.add(convolve(level.get(i), level.get(i + 1)));
+			}
+			if (level.size() % 2 == 1) {
+				next.add(level.get(level.size() - 1));
+			}
+			level = next;
+		}
+		return level.get(0);
+	}
+	
+	/**
+	 * Finds the distribution of the sum of two independent counts
+	 * @param a the distribution of the first count
+	 * @param b the distribution of the second count
+	 * @return the distribution of the sum
+	 */
+	public static double[] convolve(double[] a, double[] b) {
+		double [] sum;
+		if (a.length > FFT_THRESHOLD && b.length > FFT_THRESHOLD) {
+			sum = convolveFft(a, b);
+		} else {
+			sum = new double[a.length + b.length - 1];
+			for (int i = 0; i < a.length; i++) {
+				if (a[i] == 0) {
+					continue;
+				}
+				for (int j = 0; j < b.length; j++) {
+					sum[i + j] += a[i] * b[j];
+				}
+			}
+		}
+		
+		// Renormalize so rounding does not build up over many convolutions
+		double mass = 0;
+		for (int i = 0; i < sum.length; i++) {
+			mass += sum[i];
+		}
+		for (int i = 0; i < sum.length; i++) {
+			sum[i] /= mass;
+		}
+		return sum;
+	}
+	
+	/**
+	 * Convolves two distributions by multiplying their Fourier transforms
+	 * @param a the distribution of the first count
+	 * @param b the distribution of the second count
+	 * @return the distribution of the sum
+	 */
+	private static double[] convolveFft(double[] a, double[] b) {
+		int length = a.length + b.length - 1;
+		int n = Integer.highestOneBit(length);
+		if (n < length) {
+			n <<= 1;
+		}
+		
+		double [] aRe = new double[n];
+		double [] aIm = new double[n];
+		double [] bRe = new double[n];
+		double [] bIm = new double[n];
+		System.arraycopy(a, 0, aRe, 0, a.length);
+		System.arraycopy(b, 0, bRe, 0, b.length);
+		
+		fft(aRe, aIm, false);
+		fft(bRe, bIm, false);
+		for (int i = 0; i < n; i++) {
+			double re = aRe[i] * bRe[i] - aIm[i] * bIm[i];
+			double im = aRe[i] * bIm[i] + aIm[i] * bRe[i];
+			aRe[i] = re;
+			aIm[i] = im;
+		}
+		fft(aRe, aIm, true);
+		
+		double [] sum = new double[length];
+		for (int i = 0; i < length; i++) {
+			// Round-off can leave tiny negative probabilities
+			sum[i] = Math.max(0, aRe[i] / n);
+		}
+		return sum;
+	}
+	
+	/**
+	 * In-place iterative radix-2 fast Fourier transform. The inverse is not scaled by 1/n
+	 * @param re the real parts, of a length that is a power of 2
+	 * @param im the imaginary parts
+	 * @param inverse true for the inverse transform
+	 */
+	private static void fft(double[] re, double[] im, boolean inverse) {
+		int n = re.length;
+		
+		// Bit reversal permutation
+		for (int i = 1, j = 0; i < n; i++) {
+			int bit = n >> 1;
+			for (; (j & bit) != 0; bit >>= 1) {
+				j ^= bit;
+			}
+			j ^= bit;
+			if (i < j) {
+				double t = re[i];
+				re[i] = re[j];
+				re[j] = t;
+				t = im[i];
+				im[i] = im[j];
+				im[j] = t;
+			}
+		}
+		
+		for (int len = 2; len <= n; len <<= 1) {
+			double angle = 2 * Math.PI / len * (inverse ? 1 : -1);
+			double wRe = Math.cos(angle);
+			double wIm = Math.sin(angle);
+			for (int i = 0; i < n; i += len) {
+				double curRe = 1;
+				double curIm = 0;
+				for (int j = 0; j < len / 2; j++) {
+					int u = i + j;
+					int v = i + j + len / 2;
+					double vRe = re[v] * curRe - im[v] * curIm;
+					double vIm = re[v] * curIm + im[v] * curRe;
+					re[v] = re[u] - vRe;
+					im[v] = im[u] - vIm;
+					re[u] += vRe;
+					im[u] += vIm;
+					double nextRe = curRe * wRe - curIm * wIm;
+					curIm = curRe * wIm + curIm * wRe;
+					curRe = nextRe;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Finds a percentile of the null distribution of the total count
+	 * @param percentile the percentile value to be used. Must be >0 and <=100
+	 * @return the smallest total whose cumulative probability reaches the percentile
+	 */
+	public int getPercentile(double percentile) {
+		if (percentile <= 0 || percentile > 100.0) {
+			throw new IllegalArgumentException("percentile must be >0 and <= 100");
+		}
+		double [] dist = getTotalDistribution();
+		double cumulative = 0;
+		for (int i = 0; i < dist.length; i++) {
+			cumulative += dist[i];
+			if (cumulative >= percentile / 100.0 - 1e-12) {
+				return i;
+			}
+		}
+		return dist.length - 1;
+	}
+	
+	/**
+	 * Finds the probability under the null of a total at least as large as the one observed
+	 * @param observed the observed total count of the gene of interest
+	 * @return the one-sided p-value of the observed total
+	 */
+	public double getPValue(int observed) {
+		double [] dist = getTotalDistribution();
+		double tail = 0;
+		for (int i = Math.max(0, observed); i < dist.length; i++) {
+			tail += dist[i];
+		}
+		return Math.min(1.0, tail);
+	}
+	
+	/**
+	 * Getter for the mean of the null distribution of the total count
+	 * @return the expected total count
+	 */
+	public double getMean() {
+		double [] dist = getTotalDistribution();
+		double mean = 0;
+		for (int i = 0; i < dist.length; i++) {
+			mean += i * dist[i];
+		}
+		return mean;
+	}
+	
+	/**
+	 * Getter for the number of variant distributions added
+	 * @return the number of variants in the test
+	 */
+	public synchronized int getVariantCount() {
+		return distributions.size();
+	}
+	
+	/**
+	 * Writes the result of the test, followed by the null distribution of the total count
+	 * @param reportFile the name of the file to write
+	 * @param observed the observed total count of the gene of interest, or null if it is not known
+	 */
+	public void writeReport(String reportFile, Integer observed) {
+		double [] dist = getTotalDistribution();
+		try {
+			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(reportFile)));
+			out.write("variants\t" + getVariantCount() + "\n");
+			out.write("mean_total\t" + getMean() + "\n");
+			out.write("cutoff_95\t" + getPercentile(95.0) + "\n");
+			if (observed != null) {
+				out.write("observed_total\t" + observed + "\n");
+				out.write("p_value\t" + getPValue(observed) + "\n");
+			}
+			out.write("#total\tprobability\n");
+			for (int i = 0; i < dist.length; i++) {
+				if (dist[i] > 0) {
+					out.write(i + "\t" + dist[i] + "\n");
+				}
+			}
+			out.close();
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+} // end class AggregateTest
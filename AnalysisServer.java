@@ -0,0 +1,169 @@
+/**
+ * Class to keep the genome and gff files loaded and run sampling jobs sent
+ * over a local socket, so each vcf file only pays for its own sampling
+ *
+ * Protocol: a client sends one line of the form vcf<TAB>gene of interest[,gene of interest...]<TAB>prefix[<TAB>seed],
+ * with the vcf file and prefix as absolute paths since the server runs in its own directory.
+ * The server answers QUEUED <job id> once the job is accepted, then DONE <job id> followed by a <TAB> and the
+ * results file of each gene of interest, or FAILED <job id><TAB><reason> when it finishes. Jobs must not share a prefix.
+ * @author Stephen Pollo
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AnalysisServer {
+	
+	private GenomeSample gs;
+	private BedtoolsWrapper bw;
+	private AnalyzeGOIInSample ags;
+	private ResultCache cache;
+	private ExecutorService jobs;
+	private AtomicInteger nextJobId = new AtomicInteger(1);
+	
+	/**
+	 * Constructor
+	 * @param genomeSample the loaded genome that every job samples from
+	 * @param exonerateFile path to the gff file created from mapping proteins to the genome with exonerate
+	 * @param analyze the loaded genome gff file shared by every job
+	 * @param resultCache the cache of distributions shared by every job, or null to sample every variant
+	 * @param threads the number of jobs to run at the same time
+	 */
+	public AnalysisServer(GenomeSample genomeSample, String exonerateFile, AnalyzeGOIInSample analyze, ResultCache resultCache, int threads) {
+		gs = genomeSample;
+		bw = new BedtoolsWrapper(exonerateFile);
+		ags = analyze;
+		cache = resultCache;
+		jobs = Executors.newFixedThreadPool(threads);
+	}
+	
+	/**
+	 * Accepts jobs on the loopback interface until the process is killed
+	 * @param port the port to listen on
+	 */
+	public void serve(int port) {
+		try {
+			ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+			System.err.println("Listening for jobs on " + server.getLocalSocketAddress());
+			
+			while (true) {
+				Socket client = server.accept();
+				Thread handler = new Thread(() -> handle(client));
+				handler.setDaemon(true);
+				handler.start();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Reads one job from a client, queues it and reports back when it is done
+	 * @param client the connection to the client
+	 */
+	private void handle(Socket client) {
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+			PrintWriter out = new PrintWriter(client.getOutputStream(), true);
+			String line = in.readLine();
+			String [] vals = line == null ? new String[0] : line.split("\t");
+			
+			if (vals.length < 3) {
+				out.println("FAILED 0\texpected vcf<TAB>gene of interest[,gene of interest...]<TAB>prefix[<TAB>seed]");
+			} else if (!new File(vals[0]).isFile()) {
+				// Checked here so a missing file does not take the whole server down
+				out.println("FAILED 0\tno such vcf file " + vals[0]);
+			} else {
+				int id = nextJobId.getAndIncrement();
+				String seed = vals.length > 3 ? vals[3] : null;
+				Future<String> job = jobs.submit(() -> runJob(id, vals[0], vals[1], vals[2], seed));
+				out.println("QUEUED " + id);
+				System.err.println("Queued job " + id + ": " + line);
+				
+				try {
+					out.println("DONE " + id + "\t" + job.get());
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
+					out.println("FAILED " + id + "\t" + e.getCause());
+				} catch (InterruptedException e) {
+					out.println("FAILED " + id + "\tinterrupted");
+				}
+			}
+			client.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Runs one job against the shared genome and gff file, once for each of its genes of interest
+	 * @param id the id of the job
+	 * @param vcfFile the vcf file of called structural variants
+	 * @param gois the genes of interest, comma separated
+	 * @param prefix the prefix (and directory) of the output files
+	 * @param seed the seed of the job, or null to sample without one
+	 * @return the files the results were written to, tab delimited in the order of the genes of interest
+	 */
+	private String runJob(int id, String vcfFile, String gois, String prefix, String seed) {
+		HashMap<String, String> options = new HashMap<String, String>();
+		if (seed != null) {
+			options.put("seed", seed);
+		}
+		
+		// The loaded inputs are shared, the per sample state is in the job's own distribution
+		VariantReader vr = new VariantReader(vcfFile);
+		gs.getContigs().reportUnknown("vcf file " + vcfFile, vr.getContigs());
+		String results = null;
+		for (String goi : gois.split(",")) {
+			String file = SVAnalysis.runJob(gs, bw, ags, cache, vr, goi, prefix, prefix + "/results_" + goi + ".txt", options, null, null, null);
+			results = results == null ? file : results + "\t" + file;
+		}
+		System.err.println("Finished job " + id);
+		return results;
+	}
+	
+	/**
+	 * Sends a job to a running server and prints its replies until the job is done.
+	 * The vcf file and prefix are sent as absolute paths, so the output lands where the client is
+	 * @param port the port the server listens on
+	 * @param vcfFile the vcf file of called structural variants
+	 * @param goi the gene of interest, or several comma separated
+	 * @param prefix the prefix (and directory) of the output files
+	 * @param seed the seed of the job, or null to sample without one
+	 */
+	public static void submit(int port, String vcfFile, String goi, String prefix, String seed) {
+		try {
+			Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+			PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			
+			String job = new File(vcfFile).getAbsolutePath() + "\t" + goi + "\t" + new File(prefix).getAbsolutePath();
+			if (seed != null) {
+				job += "\t" + seed;
+			}
+			out.println(job);
+			
+			String line = in.readLine();
+			while (line != null) {
+				System.out.println(line);
+				line = in.readLine();
+			}
+			socket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+} // end class AnalysisServer
@@ -1,82 +1,212 @@
 /**
  * Class to take a genome sample and find how many genes of interest it contains
+ *
+ * The gene descriptions are only read once they are loaded, so one loaded object can answer the
+ * queries of any number of threads when each thread passes its own QueryResult to fill. The
+ * queries without a QueryResult keep their results in the object and are for one thread at a time
  * @author Stephen Pollo
  */
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Scanner;
-import java.util.TreeMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public class AnalyzeGOIInSample {
 	
-	private TreeMap<String, String> geneDescriptions = new TreeMap<String, String>();
-	private ArrayList<String> descriptions = new ArrayList<String>();
-	private ArrayList<String> allIds = new ArrayList<String>();
-	private ArrayList<String> uniqueIds = new ArrayList<String>();
+	// Markers around the gene id in the attributes column of the exonerate gff file
+	public static final String ID_START = "sequence ";
+	public static final String ID_END = "-t26_1-p1";
+	
+	/**
+	 * Defines the id, description pairs of the gene entries found in one chunk of the gff file
+	 * @author Stephen Pollo
+	 */
+	private static class GffChunk {
+		ArrayList<String> keys = new ArrayList<String>();
+		ArrayList<String> values = new ArrayList<String>();
+		HashSet<String> contigs = new HashSet<String>();
+	}
+	
+	/**
+	 * Defines how the lines of a chunk of the gff file are parsed
+	 * @author Stephen Pollo
+	 */
+	private static class GffChunkParser implements ChunkedFileParser.LineParser<GffChunk> {
+		
+		public GffChunk newResult() {
+			return new GffChunk();
+		}
+		
+		public void parseLine(GffChunk chunk, byte[] data, int start, int end) {
+			if (end == start || data[start] == '#') {
+				// Empty or comment line, skip
+				return;
+			}
+			// Populate the chunk with id, description pairs of gene entries
+			String [] vals = new String(data, start, end - start, StandardCharsets.UTF_8).split("\t");
+			chunk.contigs.add(vals[0]);
+			
+			if (vals[2].equalsIgnoreCase("gene")) {
+				chunk.keys.add(vals[8].substring(3, vals[8].indexOf(';')));
+				chunk.values.add(vals[8].substring(vals[8].indexOf("description=") + 12));
+			}
+		}
+	}
+	
+	/**
+	 * Defines the gene ids and contigs found in one chunk of the exonerate file
+	 * @author Stephen Pollo
+	 */
+	private static class ExonerateChunk {
+		HashSet<String> ids = new HashSet<String>();
+		HashSet<String> contigs = new HashSet<String>();
+	}
+	
+	/**
+	 * Defines how the lines of a chunk of the exonerate file are parsed into the gene ids they map
+	 * @author Stephen Pollo
+	 */
+	private static class ExonerateIdParser implements ChunkedFileParser.LineParser<ExonerateChunk> {
+		
+		public ExonerateChunk newResult() {
+			return new ExonerateChunk();
+		}
+		
+		public void parseLine(ExonerateChunk chunk, byte[] data, int start, int end) {
+			if (end == start || data[start] == '#') {
+				// Empty or comment line, skip
+				return;
+			}
+			String [] vals = new String(data, start, end - start, StandardCharsets.UTF_8).split("\t");
+			chunk.contigs.add(vals[0]);
+			chunk.ids.add(parseGeneId(vals[8]));
+		}
+	}
+	
+	/**
+	 * Defines the result lists of converting the bedtools output of one sample, owned by the caller
+	 * and reused between queries so the conversion does not allocate new lists
+	 * @author Stephen Pollo
+	 */
+	public static class QueryResult {
+		private ArrayList<String> allIds = new ArrayList<String>();
+		private ArrayList<String> uniqueIds = new ArrayList<String>();
+		private ArrayList<String> descriptions = new ArrayList<String>();
+		
+		/**
+		 * Getter for the ids of every record of the last query
+		 * @return ArrayList<String> of all ids from the bedtools output
+		 */
+		public ArrayList<String> getAllIds() {
+			return allIds;
+		}
+		
+		/**
+		 * Getter for the unique ids of the last query
+		 * @return ArrayList<String> of the unique ids from the bedtools output, sorted
+		 */
+		public ArrayList<String> getUniqueIds() {
+			return uniqueIds;
+		}
+		
+		/**
+		 * Getter for the descriptions of the unique ids of the last query
+		 * @return ArrayList<String> of gene descriptions, in the order of the unique ids
+		 */
+		public ArrayList<String> getDescriptions() {
+			return descriptions;
+		}
+	} // end class QueryResult
+	
+	private GeneDescriptionStore geneDescriptions = new GeneDescriptionStore();
+	private HashSet<String> mappedContigs = null;
+	private HashSet<String> referenceContigs = new HashSet<String>();
+	private QueryResult lastResult = new QueryResult();
 	
 	/**
 	 * Constructor
 	 * @param genomeGff the path to the file that contains the genome gff file that has
 	 * all the gene information paired to the gene ids
+	 * @throws UncheckedIOException if the gff file cannot be found or read
 	 */
 	public AnalyzeGOIInSample(String genomeGff) {
+		this(genomeGff, null);
+	}
+	
+	/**
+	 * Constructor that only keeps the genes mapped in the exonerate file, the only genes
+	 * an overlap can ever find
+	 * @param genomeGff the path to the file that contains the genome gff file that has
+	 * all the gene information paired to the gene ids
+	 * @param exonerateFile the gff file created from mapping proteins to the genome with exonerate, or null to keep every gene
+	 * @throws UncheckedIOException if the gff or exonerate file cannot be found or read
+	 */
+	public AnalyzeGOIInSample(String genomeGff, String exonerateFile) {
 		
 		/*
 		 * Attempt to read the file provided.
 		 * Catch exceptions thrown if errors occur
 		 */
 		try {
-			File gff = new File(genomeGff);
-		    Scanner in = new Scanner(gff);
-		    String line;
-		    String [] vals;
-		    
-		    while (in.hasNextLine()) {
-		    	line = in.nextLine();
-		    	
-		    	if (line.charAt(0) == '#') {
-		    		// Comment line, skip
-		    		continue;
-		    	}
-		    	else {
-		    		// Populate treemap with id, description pairs of gene entries
-		    		vals = line.split("\t");
-		    		
-		    		if (vals[2].equalsIgnoreCase("gene")) {
-		    			String key = vals[8].substring(3, vals[8].indexOf(';'));
-			    		String value = vals[8].substring(vals[8].indexOf("description=") + 12);
-			    		
-			    		geneDescriptions.put(key, value);
-		    		} else {
-		    			// Skip
-		    			continue;
-		    		}
-		    	
-		    	}
-		    } // end while reading file
-		    
-		    in.close();
+			HashSet<String> mapped = null;
+			if (exonerateFile != null) {
+				mapped = new HashSet<String>();
+				mappedContigs = new HashSet<String>();
+				ArrayList<ExonerateChunk> idChunks = ChunkedFileParser.parse(exonerateFile, new ExonerateIdParser());
+				for (int i = 0; i < idChunks.size(); i++) {
+					mapped.addAll(idChunks.get(i).ids);
+					mappedContigs.addAll(idChunks.get(i).contigs);
+				}
+			}
+			
+			// Chunks of the file are parsed in parallel, then added to the store in file order
+			ArrayList<GffChunk> chunks = ChunkedFileParser.parse(genomeGff, new GffChunkParser());
+			
+			for (int i = 0; i < chunks.size(); i++) {
+				GffChunk chunk = chunks.get(i);
+				referenceContigs.addAll(chunk.contigs);
+				for (int j = 0; j < chunk.keys.size(); j++) {
+					if (mapped == null || mapped.contains(chunk.keys.get(j))) {
+						geneDescriptions.put(chunk.keys.get(j), chunk.values.get(j));
+					}
+				}
+			}
+			geneDescriptions.trim();
 		} // end file reading try block
 
 		/*
-		 * Print the error if one was found and terminate
-		 * the program
+		 * Pass the error on to the caller, which decides
+		 * whether the program should stop
 		 */
 		catch(FileNotFoundException e) {
-			e.toString();
-			usage();
-			System.exit(1);
+			throw new UncheckedIOException("Could not find required gff file " + genomeGff, e);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not read gff file " + genomeGff, e);
 		}
 	} // end constructor
 	
+	/**
+	 * Constructor for a view of an already loaded gff file. The view shares the
+	 * gene descriptions with the loaded object but has its own result lists, so
+	 * each thread using the queries without a QueryResult can have its own view
+	 * @param loaded the object that already read the genome gff file
+	 */
+	public AnalyzeGOIInSample(AnalyzeGOIInSample loaded) {
+		geneDescriptions = loaded.geneDescriptions;
+		mappedContigs = loaded.mappedContigs;
+		referenceContigs = loaded.referenceContigs;
+	}
+	
 	/**
 	 * Method to count the number of genes of interest in a list of gene descriptions
 	 * @param goi the name of the gene of interest
 	 * @param geneDescriptions the list of gene descriptions 
 	 * @return the count of genes of interest in the list
 	 */
-	public int countGOI(String goi, ArrayList<String> geneDescriptionList) {
+	public int countGOI(String goi, List<String> geneDescriptionList) {
 		int count = 0;
 		
 		for (int i = 0; i < geneDescriptionList.size(); i++) {
@@ -92,6 +222,33 @@ public class AnalyzeGOIInSample {
 		return count;
 	}
 	
+	/**
+	 * Method to count the number of genes of interest among gene ids, matching their descriptions the same
+	 * way countGOI() does without building a description string. Ids not in the gff file are not counted
+	 * @param goi the name of the gene of interest
+	 * @param geneIds the ids of the genes
+	 * @return the count of genes of interest among the ids
+	 */
+	public int countGOIIds(String goi, List<String> geneIds) {
+		int count = 0;
+		for (int i = 0; i < geneIds.size(); i++) {
+			if (geneDescriptions.isGOI(geneIds.get(i), goi)) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Method to check if a gene is a gene of interest, matching its description the same way countGOI() does
+	 * @param geneId the id of the gene
+	 * @param goi the name of the gene of interest
+	 * @return true if the gene has a description that matches the gene of interest
+	 */
+	public boolean isGOI(String geneId, String goi) {
+		return geneDescriptions.isGOI(geneId, goi);
+	}
+	
 	/**
 	 * Method to parse the bedtools output from the bedtools wrapper class to
 	 * pull out the gene id then use it to find the matching gene description
@@ -100,47 +257,99 @@ public class AnalyzeGOIInSample {
 	 * @return an ArrayList of the gene descriptions of the genes in the bedtools output
 	 */
 	public ArrayList<String> convertGeneIdsToDescriptions(ArrayList<String> bedtoolsOutput) {
-		descriptions.clear();
-		allIds.clear();
-		uniqueIds.clear();
+		return convertGeneIdsToDescriptions(bedtoolsOutput, lastResult);
+	}
+	
+	/**
+	 * Method to parse the bedtools output of one sample into the gene ids and their descriptions,
+	 * filling lists owned by the caller. Only reads the loaded gene descriptions, so any number
+	 * of threads can call it at the same time with their own results
+	 * @param bedtoolsOutput the lines bedtools wrote for the sample
+	 * @param result the lists to fill, cleared first
+	 * @return the gene descriptions of the genes in the bedtools output, the descriptions list of the result
+	 */
+	public ArrayList<String> convertGeneIdsToDescriptions(List<String> bedtoolsOutput, QueryResult result) {
+		resolveGeneIds(bedtoolsOutput, result);
+		return resolveDescriptions(result);
+	}
+	
+	/**
+	 * Method to parse the bedtools output of one sample into the gene ids only, filling lists owned by
+	 * the caller. The descriptions list of the result is cleared, resolveDescriptions() fills it when needed
+	 * @param bedtoolsOutput the lines bedtools wrote for the sample
+	 * @param result the lists to fill, cleared first
+	 * @return the unique ids of the genes in the bedtools output, sorted
+	 */
+	public ArrayList<String> resolveGeneIds(List<String> bedtoolsOutput, QueryResult result) {
+		result.allIds.clear();
+		result.descriptions.clear();
 		
 		for (int i = 0; i < bedtoolsOutput.size(); i++) {
-			String [] bedLine = bedtoolsOutput.get(i).split("\t");
-			String id = bedLine[11].substring(bedLine[11].indexOf("sequence ") + 9, bedLine[11].indexOf("-t26_1-p1"));
-			allIds.add(id);
+			result.allIds.add(parseGeneId(column(bedtoolsOutput.get(i), 11)));
 		}
 		
-		uniqueIds = filterUniqueIds(allIds);
-		
-		for (int i = 0; i < uniqueIds.size(); i++) {
-			String desc = geneDescriptions.get(uniqueIds.get(i));
-			descriptions.add(desc);
+		filterUniqueIds(result.allIds, result.uniqueIds);
+		return result.uniqueIds;
+	}
+	
+	/**
+	 * Method to look up the descriptions of the unique ids of a result filled by resolveGeneIds()
+	 * @param result the result to fill the descriptions list of, cleared first
+	 * @return the gene descriptions, in the order of the unique ids
+	 */
+	public ArrayList<String> resolveDescriptions(QueryResult result) {
+		result.descriptions.clear();
+		for (int i = 0; i < result.uniqueIds.size(); i++) {
+			result.descriptions.add(geneDescriptions.get(result.uniqueIds.get(i)));
 		}
-
-		return descriptions;
+		return result.descriptions;
+	}
+	
+	/**
+	 * Finds one tab delimited column of a line without splitting the whole line
+	 * @param line the line
+	 * @param index the index of the column, from 0
+	 * @return the column, up to the next tab or the end of the line
+	 */
+	private static String column(String line, int index) {
+		int start = 0;
+		for (int i = 0; i < index; i++) {
+			start = line.indexOf('\t', start) + 1;
+		}
+		int end = line.indexOf('\t', start);
+		return end < 0 ? line.substring(start) : line.substring(start, end);
+	}
+	
+	/**
+	 * Method to pull the gene id out of the attributes column of an exonerate gff record
+	 * @param attributes the ninth column of the exonerate record
+	 * @return the gene id
+	 */
+	public static String parseGeneId(String attributes) {
+		return attributes.substring(attributes.indexOf(ID_START) + ID_START.length(), attributes.indexOf(ID_END));
 	}
 	
 	/**
 	 * Method to filter duplicate ids out of array list of gene ids
 	 * @param ids the arraylist of all ids
-	 * @return an arraylist of only the unique ids
+	 * @param unique the arraylist to fill with only the unique ids, sorted
 	 */
-	private ArrayList<String> filterUniqueIds(ArrayList<String> ids) {
-		ArrayList<String> toFilter = new ArrayList<String>(ids);
-		toFilter.sort(null);
-		// Make sure all ids are unique
-		for (int i = 1; i < toFilter.size(); i++) {
-			if (toFilter.get(i).equalsIgnoreCase(toFilter.get(i - 1))) {
-				toFilter.remove(i);
-				i--;
+	private static void filterUniqueIds(ArrayList<String> ids, ArrayList<String> unique) {
+		unique.clear();
+		unique.addAll(ids);
+		unique.sort(null);
+		// Make sure all ids are unique, keeping the first of each run of equal ids
+		int kept = Math.min(1, unique.size());
+		for (int i = 1; i < unique.size(); i++) {
+			if (!unique.get(i).equalsIgnoreCase(unique.get(kept - 1))) {
+				unique.set(kept++, unique.get(i));
 			}
 		}
-		
-		return toFilter;
+		unique.subList(kept, unique.size()).clear();
 	}
 	
 	/**
-	 * Debugging method. View key value pairs in the tree.
+	 * Debugging method. View the id, description pairs of every gene, sorted by id.
 	 */
 	public void printTree() {
 		System.out.println(geneDescriptions.toString());
@@ -155,11 +364,11 @@ public class AnalyzeGOIInSample {
 	}
 	
 	/**
-	 * Method to write the constructed treemap to a file
+	 * Method to write the gene descriptions to a file
 	 * @param logName the name of the log file to write
 	 */
 	public void writeGffLog(String logName) {
-		// Write the treemap of the genes from the gff file to a log file
+		// Write the genes from the gff file to a log file, sorted by id
 		try {
 			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logName)));
 			out.write(geneDescriptions.toString() + "\n");
@@ -179,8 +388,8 @@ public class AnalyzeGOIInSample {
 		// Write the arraylist of all ids parsed from bedtools output to a log file
 		try {
 			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logName)));
-			for (int i = 0; i < allIds.size(); i++) {
-				out.write(allIds.get(i) + "\n");
+			for (int i = 0; i < lastResult.allIds.size(); i++) {
+				out.write(lastResult.allIds.get(i) + "\n");
 			}
 			out.close();
 		} catch (FileNotFoundException e) {
@@ -198,8 +407,8 @@ public class AnalyzeGOIInSample {
 		// Write the arraylist of the filtered unique ids from the bedtools output to a log file
 		try {
 			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logName)));
-			for (int i = 0; i < uniqueIds.size(); i++) {
-				out.write(uniqueIds.get(i) + "\n");
+			for (int i = 0; i < lastResult.uniqueIds.size(); i++) {
+				out.write(lastResult.uniqueIds.get(i) + "\n");
 			}
 			out.close();
 		} catch (FileNotFoundException e) {
@@ -217,8 +426,8 @@ public class AnalyzeGOIInSample {
 		// Write the descriptions of the unique ids to a log file
 		try {
 			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logName)));
-			for (int i = 0; i < descriptions.size(); i++) {
-				out.write(descriptions.get(i) + "\n");
+			for (int i = 0; i < lastResult.descriptions.size(); i++) {
+				out.write(lastResult.descriptions.get(i) + "\n");
 			}
 			out.close();
 		} catch (FileNotFoundException e) {
@@ -228,13 +437,29 @@ public class AnalyzeGOIInSample {
 		}
 	}
 	
+	/**
+	 * Getter for the contigs the exonerate file maps genes to
+	 * @return the contig names, or null if the gff file was read without an exonerate file
+	 */
+	public Set<String> getMappedContigs() {
+		return mappedContigs;
+	}
+	
+	/**
+	 * Getter for the contigs of the records of the genome gff file
+	 * @return the contig names
+	 */
+	public Set<String> getReferenceContigs() {
+		return referenceContigs;
+	}
+	
 	/**
 	 * Getter for the current list of all ids
 	 * NOTE this list gets overwritten every time the convertGeneIdsToDescriptions() method is called
 	 * @return ArrayList<String> of all ids from the bedtools file
 	 */
 	public ArrayList<String> getAllIds() {
-		return allIds;
+		return lastResult.allIds;
 	}
 	
 	/**
@@ -243,7 +468,7 @@ public class AnalyzeGOIInSample {
 	 * @return ArrayList<String> of the unique ids from the bedtools file
 	 */
 	public ArrayList<String> getUniqueIds() {
-		return uniqueIds;
+		return lastResult.uniqueIds;
 	}
 	
 	/**
@@ -252,7 +477,7 @@ public class AnalyzeGOIInSample {
 	 * @return ArrayList<String> of gene descriptions from the bedtools file
 	 */
 	public ArrayList<String> getDescriptions() {
-		return descriptions;
+		return lastResult.descriptions;
 	}
 	
 } // end class AnalyzeGOIInSample
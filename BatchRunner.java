@@ -0,0 +1,216 @@
+/**
+ * Class to run the sampling experiment on many vcf files in one process. The genome and
+ * gff files are loaded once and the variants of every vcf file are sampled from one pool of work
+ *
+ * The manifest has one row per vcf file: vcf<TAB>gene of interest<TAB>prefix. Lines starting with # are skipped.
+ * Each vcf file gets the result of each of its variants streamed to <prefix>/results_<gene of interest>.txt
+ * @author Stephen Pollo
+ */
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BatchRunner {
+	
+	/**
+	 * Defines one row of the manifest and the results of its variants
+	 * @author Stephen Pollo
+	 */
+	private class Job {
+		String goi;
+		String prefix;
+		ArrayList<SVSize> variants;
+		ResultsWriter results;
+		CountMatrixWriter matrix;
+		AtomicInteger remaining;
+		
+		/**
+		 * Constructor
+		 * @param vcfFile the vcf file of called structural variants
+		 * @param g the gene of interest
+		 * @param p the prefix (and directory) of the output files
+		 */
+		public Job(String vcfFile, String g, String p) {
+			goi = g;
+			prefix = p;
+			VariantReader vr = new VariantReader(vcfFile);
+			gs.getContigs().reportUnknown("vcf file " + vcfFile, vr.getContigs());
+			variants = vr.getVariants();
+			remaining = new AtomicInteger(variants.size());
+		}
+	}
+	
+	private GenomeSample gs;
+	private BedtoolsWrapper bw;
+	private AnalyzeGOIInSample ags;
+	private ResultCache cache;
+	private Long seed;
+	private boolean vcfOrder = true;
+	private int flushEvery = 1;
+	private int matrixWidth = 0; // bytes per count of the count matrix of each vcf file, 0 to not write one
+	
+	/**
+	 * Constructor
+	 * @param genomeSample the loaded genome that every vcf file samples from
+	 * @param exonerateFile path to the gff file created from mapping proteins to the genome with exonerate
+	 * @param analyze the loaded genome gff file
+	 * @param resultCache the cache of distributions shared by every vcf file, or null to sample every variant
+	 * @param runSeed the seed of the run, or null to sample without one
+	 */
+	public BatchRunner(GenomeSample genomeSample, String exonerateFile, AnalyzeGOIInSample analyze, ResultCache resultCache, Long runSeed) {
+		gs = genomeSample;
+		// The wrapper and gff file are shared by every worker, each distribution keeps its own result lists
+		bw = new BedtoolsWrapper(exonerateFile);
+		ags = analyze;
+		cache = resultCache;
+		seed = runSeed;
+	}
+	
+	/**
+	 * Sets how the results file of each vcf file is written
+	 * @param inVcfOrder true to write the variants in vcf order, false to write them as they finish
+	 * @param linesPerFlush the number of lines to write before flushing each results file
+	 */
+	public void setResultsOptions(boolean inVcfOrder, int linesPerFlush) {
+		vcfOrder = inVcfOrder;
+		flushEvery = linesPerFlush;
+	}
+	
+	/**
+	 * Sets whether the distributions of each vcf file are also written to <prefix>/counts_<gene of interest>.svcm
+	 * @param countWidth the width of a count in bytes: 1, 2 or 4, or 0 to not write a count matrix
+	 */
+	public void setCountMatrix(int countWidth) {
+		matrixWidth = countWidth;
+	}
+	
+	/**
+	 * Reads the manifest and samples the variants of every vcf file in it
+	 * @param manifest the path of the manifest file
+	 * @param threads the number of variants to sample at the same time
+	 */
+	public void run(String manifest, int threads) {
+		ArrayList<Job> jobs = new ArrayList<Job>();
+		
+		/*
+		 * Attempt to read the manifest provided.
+		 * Catch exceptions thrown if errors occur
+		 */
+		try {
+			Scanner in = new Scanner(new File(manifest));
+			String line;
+			
+			while (in.hasNextLine()) {
+				line = in.nextLine();
+				if (line.isEmpty() || line.charAt(0) == '#') {
+					continue;
+				}
+				String [] vals = line.split("\t");
+				if (vals.length < 3) {
+					System.err.println("Skipping manifest line, expected vcf<TAB>gene of interest<TAB>prefix: " + line);
+					continue;
+				}
+				// A vcf file that cannot be read skips its row, the other rows still run
+				try {
+					jobs.add(new Job(vals[0], vals[1], vals[2]));
+				} catch (UncheckedIOException e) {
+					System.err.println(e);
+					System.err.println("Skipping manifest line, could not read the vcf file: " + line);
+				}
+			}
+			
+			in.close();
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+			System.err.println("Could not find the manifest " + manifest);
+			return;
+		}
+		
+		// The genome index and gff logs only depend on the prefix, write them once per vcf file
+		for (int i = 0; i < jobs.size(); i++) {
+			Job job = jobs.get(i);
+			new File(job.prefix).mkdir();
+			gs.writeIndexLog(SVAnalysis.logPrefix(job.prefix) + "_genome_index.txt");
+			ags.writeGffLog(SVAnalysis.logPrefix(job.prefix) + "_gff_treemap.txt");
+			try {
+				job.results = new ResultsWriter(job.prefix + "/results_" + job.goi + ".txt", vcfOrder, false, flushEvery);
+				if (matrixWidth > 0) {
+					job.matrix = new CountMatrixWriter(job.prefix + "/counts_" + job.goi + ".svcm", job.variants,
+							GetDistOfGOI.getSampleCount(), matrixWidth);
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+		}
+		
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		for (int i = 0; i < jobs.size(); i++) {
+			Job job = jobs.get(i);
+			if (job.variants.isEmpty()) {
+				job.results.close();
+				if (job.matrix != null) {
+					job.matrix.close();
+				}
+			}
+			for (int j = 0; j < job.variants.size(); j++) {
+				int index = j;
+				pool.execute(() -> analyzeVariant(job, index));
+			}
+		}
+		
+		pool.shutdown();
+		try {
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Samples one variant of a vcf file on the current worker thread, writes its result
+	 * and closes the results file of the vcf file if it was the last of its variants.
+	 * A variant that fails is written with 0 samples, so the files of its vcf file are still closed
+	 * @param job the row of the manifest the variant belongs to
+	 * @param index the index of the variant in the vcf file
+	 */
+	private void analyzeVariant(Job job, int index) {
+		SVSize v = job.variants.get(index);
+		int cutoff = 0;
+		int samples = 0;
+		try {
+			String logPrefix = SVAnalysis.logPrefix(job.prefix);
+			GetDistOfGOI dist = new GetDistOfGOI(gs, bw, ags, logPrefix, false);
+			VariantAnalyzer va = new VariantAnalyzer(job.variants, dist, logPrefix);
+			if (seed != null) {
+				va.setSeed(seed);
+			}
+			va.setCache(cache);
+			va.setCountMatrix(job.matrix);
+			
+			cutoff = va.analyzeVariant(v, job.goi, index);
+			samples = va.getLastSampleCount();
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			System.err.println("Skipping variant " + v.getID() + " of " + job.prefix + ", sorry 'bout it");
+		} finally {
+			job.results.write(index, index, v, cutoff, samples);
+			if (job.remaining.decrementAndGet() == 0) {
+				job.results.close();
+				if (job.matrix != null) {
+					job.matrix.close();
+				}
+				System.err.println("Finished " + job.prefix);
+			}
+		}
+	}
+	
+} // end class BatchRunner
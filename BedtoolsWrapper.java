@@ -2,14 +2,29 @@
  * Class to use bedtools to find overlapping genes
  * from a file containing the results of mapping proteins to the genome
  * using exonerate
+ *
+ * The methods that fill lists passed by the caller keep no state in the wrapper, so one wrapper
+ * can serve any number of threads. The methods that return the wrapper's own list are for one thread at a time
  * @author Stephen Pollo
  */
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 public class BedtoolsWrapper {
 
+	// Limits how many bedtools processes all wrappers run at the same time
+	private static int maxProcesses = Runtime.getRuntime().availableProcessors();
+	private static Semaphore processSlots = new Semaphore(maxProcesses);
+	
 	private String exoneratePath; // path to the gff file created from mapping proteins to the genome with exonerate
 	private ArrayList<String> result = new ArrayList<String>();
 	
@@ -28,50 +43,183 @@ public class BedtoolsWrapper {
 	 * @param s a Sample object of the genomic region to check
 	 */
 	public ArrayList<String> findOverlappingGenes(Sample s) {
-		result.clear();
-		String query = s.getChr() + "\t" + s.getStartCoord() + "\t" + s.getEndCoord();
+		findOverlappingGenes(s, result);
+		return result;
+	}
+	
+	/**
+	 * Method to find the overlapping genes of a genomic region into a list owned by the caller.
+	 * Any number of threads can call it at the same time with their own lists
+	 * @param s a Sample object of the genomic region to check
+	 * @param lines the list to fill with the bedtools output of the region, cleared first
+	 */
+	public void findOverlappingGenes(Sample s, List<String> lines) {
+		lines.clear();
+		runBedtools(s, null, -1, lines);
+	}
+	
+	/**
+	 * Method to find the overlapping genes of several genomic regions, with up to
+	 * getMaxProcesses() bedtools processes running at the same time.
+	 * NOTE this does not change the list returned by getBedtoolsOutput()
+	 * @param samples the genomic regions to check
+	 * @return the bedtools output of each region, in the order of the regions
+	 */
+	public ArrayList<ArrayList<String>> findOverlappingGenes(ArrayList<Sample> samples) {
+		return findOverlappingGenes(samples, 0);
+	}
+	
+	/**
+	 * Method to find the overlapping genes of several genomic regions, with up to
+	 * getMaxProcesses() bedtools processes running at the same time.
+	 * NOTE this does not change the list returned by getBedtoolsOutput()
+	 * @param samples the genomic regions to check
+	 * @param firstIndex the index of the first region in its distribution, recorded with each query
+	 * @return the bedtools output of each region, in the order of the regions
+	 */
+	public ArrayList<ArrayList<String>> findOverlappingGenes(ArrayList<Sample> samples, int firstIndex) {
+		ArrayList<ArrayList<String>> results = new ArrayList<ArrayList<String>>(samples.size());
+		findOverlappingGenes(samples, null, firstIndex, results);
+		return results;
+	}
+	
+	/**
+	 * Method to find the overlapping genes of several genomic regions into lists owned by the caller,
+	 * with up to getMaxProcesses() bedtools processes running at the same time. The lists of earlier
+	 * calls are reused, so a caller that keeps the outer list does not allocate new ones.
+	 * Any number of threads can call it at the same time with their own lists
+	 * @param samples the genomic regions to check
+	 * @param variantId the id of the distribution the regions belong to, recorded with each query, or null
+	 * @param firstIndex the index of the first region in its distribution, recorded with each query
+	 * @param results the lists to fill with the bedtools output of each region, in the order of the regions.
+	 * Grown to at least one list per region, the list of each region is cleared first
+	 * @throws UncheckedIOException if a bedtools process cannot be run or fails, the queries still running are cancelled
+	 * @throws CancellationException if the calling thread is interrupted, with its interrupt status set again
+	 */
+	public void findOverlappingGenes(List<Sample> samples, String variantId, int firstIndex, ArrayList<ArrayList<String>> results) {
+		while (results.size() < samples.size()) {
+			results.add(new ArrayList<String>());
+		}
+		ArrayList<Future<?>> running = new ArrayList<Future<?>>(samples.size());
 		
-		// Write query to tmp file so bedtools can act on it in external process
-		try {
-			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream("tmp.txt")));
-			out.write(query);
-			out.close();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
+		// One virtual thread per region, each waits for a process slot then drains its process into its own list
+		try (ExecutorService exec = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int i = 0; i < samples.size(); i++) {
+				Sample s = samples.get(i);
+				int index = firstIndex + i;
+				ArrayList<String> lines = results.get(i);
+				lines.clear();
+				running.add(exec.submit(() -> runBedtools(s, variantId, index, lines)));
+			}
+			try {
+				for (int i = 0; i < running.size(); i++) {
+					running.get(i).get();
+				}
+			} catch (InterruptedException e) {
+				// The lists are already cleared, so the caller must not read them as a finished query
+				exec.shutdownNow();
+				Thread.currentThread().interrupt();
+				throw new CancellationException("Interrupted while finding overlapping genes");
+			} catch (ExecutionException e) {
+				exec.shutdownNow();
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException)e.getCause();
+				}
+				if (e.getCause() instanceof Error) {
+					throw (Error)e.getCause();
+				}
+				throw new IllegalStateException(e.getCause());
+			}
 		}
+	}
+	
+	/**
+	 * Runs one bedtools process with the region piped through stdin
+	 * @param s a Sample object of the genomic region to check
+	 * @param variantId the id of the distribution the region belongs to, or null if it is not part of one
+	 * @param sampleIndex the index of the region in its distribution, or -1 if it is not part of one
+	 * @param lines the list to add the lines bedtools wrote for the region to
+	 * @throws UncheckedIOException if the bedtools process cannot be run or finishes with a non-zero exit code
+	 * @throws CancellationException if the thread is interrupted, with its interrupt status set again
+	 */
+	private void runBedtools(Sample s, String variantId, int sampleIndex, List<String> lines) {
+		String query = s.getChr() + "\t" + s.getStartCoord() + "\t" + s.getEndCoord() + "\n";
 		
-		// Run bedtools on query and capture result
+		Semaphore slots = processSlots;
 		try {
-			Process p = Runtime.getRuntime().exec("bedtools intersect -a tmp.txt -b " + exoneratePath + " -wb");
+			slots.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Interrupted while waiting to run bedtools");
+		}
+		PipelineEvents.OverlapQueryEvent event = new PipelineEvents.OverlapQueryEvent();
+		event.begin();
+		Process p = null;
+		try {
+			p = new ProcessBuilder("bedtools", "intersect", "-a", "stdin", "-b", exoneratePath, "-wb")
+					.redirectError(ProcessBuilder.Redirect.INHERIT).start();
+			
+			// The query is far smaller than the pipe buffer, so it can be written before draining the output
+			OutputStream out = p.getOutputStream();
+			out.write(query.getBytes(StandardCharsets.UTF_8));
+			out.close();
 			
 			BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
 			String line = in.readLine();
 			
 			while(line != null) {
-				result.add(line);
+				lines.add(line);
 				line = in.readLine();
 			}
+			in.close();
 			
 			int exitCode = p.waitFor();
 			
 			if (exitCode != 0) {
-				System.err.println("bedtools process finished with exit code " + exitCode);
-				System.exit(1);
+				// Thrown instead of exiting, so a server or batch run fails only the job of this query
+				throw new IOException("bedtools process finished with exit code " + exitCode);
 			}
 			
 		} catch (IOException e) {
-			e.printStackTrace();
+			throw new UncheckedIOException(e);
 		} catch (InterruptedException e) {
-			e.printStackTrace();
+			p.destroy();
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Interrupted while running bedtools");
+		} finally {
+			slots.release();
 		}
 		
-		// Remove the tmp file
-		File tmp = new File("tmp.txt");
-		tmp.delete();
-		
-		return result;
+		event.end();
+		if (event.shouldCommit()) {
+			event.variantId = variantId;
+			event.sampleIndex = sampleIndex;
+			event.chr = s.getChr();
+			event.start = s.getStartCoord();
+			event.end = s.getEndCoord();
+			event.records = lines.size();
+			event.commit();
+		}
+	}
+	
+	/**
+	 * Sets how many bedtools processes may run at the same time across all wrappers
+	 * @param processes the number of processes, at least 1
+	 */
+	public static synchronized void setMaxProcesses(int processes) {
+		if (processes < 1) {
+			throw new IllegalArgumentException("At least one bedtools process must be allowed");
+		}
+		maxProcesses = processes;
+		processSlots = new Semaphore(processes);
+	}
+	
+	/**
+	 * Getter for the number of bedtools processes that may run at the same time
+	 * @return the number of processes
+	 */
+	public static int getMaxProcesses() {
+		return maxProcesses;
 	}
 	
 	/**
@@ -0,0 +1,224 @@
+/**
+ * Class to parse a large text file on every core. The file is split into byte ranges that
+ * start and end on line boundaries, the ranges are parsed on the fork-join pool, and the
+ * result of each range is handed back in file order so the caller can merge them.
+ * A parse can be cancelled with a flag that every chunk checks before it is read and parsed,
+ * since cancelling the calling thread does not stop the chunks already queued on the pool
+ * @author Stephen Pollo
+ */
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ChunkedFileParser {
+	
+	public static final int DEFAULT_CHUNK_SIZE = 64 << 20;
+	
+	/**
+	 * Defines how the lines of one chunk are parsed into a partial result
+	 * @param <T> the type of the partial result of a chunk
+	 */
+	public interface LineParser<T> {
+		
+		/**
+		 * @return an empty partial result for a new chunk
+		 */
+		T newResult();
+		
+		/**
+		 * Parses one line of a chunk into the chunk's partial result
+		 * @param result the partial result of the chunk
+		 * @param data the bytes of the chunk
+		 * @param start the index of the first byte of the line
+		 * @param end the index just past the last byte of the line, line break excluded
+		 */
+		void parseLine(T result, byte[] data, int start, int end);
+	}
+	
+	private static int chunkSize = DEFAULT_CHUNK_SIZE;
+	private static ThreadLocal<AtomicBoolean> cancelFlag = new ThreadLocal<AtomicBoolean>();
+	
+	/**
+	 * Parses a file chunk by chunk on the fork-join pool, cancelled by the flag set for the calling thread if it has one
+	 * @param path the path of the file
+	 * @param parser the parser for the lines of each chunk
+	 * @return the partial result of each chunk, in file order
+	 * @throws IOException if the file cannot be found or read
+	 * @throws CancellationException if the flag of the calling thread is set before every chunk is parsed
+	 */
+	public static <T> ArrayList<T> parse(String path, LineParser<T> parser) throws IOException {
+		AtomicBoolean cancelled = cancelFlag.get();
+		return parse(path, parser, cancelled == null ? new AtomicBoolean() : cancelled);
+	}
+	
+	/**
+	 * Parses a file chunk by chunk on the fork-join pool
+	 * @param path the path of the file
+	 * @param parser the parser for the lines of each chunk
+	 * @param cancelled the flag that stops the parse, checked before each chunk is read and before it is parsed
+	 * @return the partial result of each chunk, in file order
+	 * @throws IOException if the file cannot be found or read
+	 * @throws CancellationException if the flag is set before every chunk is parsed
+	 */
+	public static <T> ArrayList<T> parse(String path, LineParser<T> parser, AtomicBoolean cancelled) throws IOException {
+		FileInputStream in = new FileInputStream(path);
+		FileChannel channel = in.getChannel();
+		
+		try {
+			long [] bounds = findChunkBounds(channel);
+			
+			ArrayList<Callable<T>> tasks = new ArrayList<Callable<T>>();
+			for (int i = 0; i + 1 < bounds.length; i++) {
+				long start = bounds[i];
+				long end = bounds[i + 1];
+				tasks.add(() -> parseChunk(channel, start, end, parser, cancelled));
+			}
+			
+			List<Future<T>> parsed = ForkJoinPool.commonPool().invokeAll(tasks);
+			ArrayList<T> results = new ArrayList<T>(parsed.size());
+			for (int i = 0; i < parsed.size(); i++) {
+				results.add(parsed.get(i).get());
+			}
+			return results;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while parsing " + path, e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException)e.getCause()).getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException)e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Splits a file into ranges of about chunkSize bytes, moving each boundary
+	 * forward to just after the next line break
+	 * @param channel the open file
+	 * @return the start of every chunk followed by the size of the file
+	 * @throws IOException if the file cannot be read
+	 */
+	private static long[] findChunkBounds(FileChannel channel) throws IOException {
+		long size = channel.size();
+		ArrayList<Long> bounds = new ArrayList<Long>();
+		bounds.add(0L);
+		
+		ByteBuffer probe = ByteBuffer.allocate(1 << 16);
+		long next = chunkSize;
+		while (next < size) {
+			// Find the end of the line the nominal boundary falls in
+			long boundary = -1;
+			long pos = next;
+			while (boundary < 0 && pos < size) {
+				probe.clear();
+				int read = channel.read(probe, pos);
+				for (int i = 0; i < read; i++) {
+					if (probe.get(i) == '\n') {
+						boundary = pos + i + 1;
+						break;
+					}
+				}
+				pos += read;
+			}
+			if (boundary < 0 || boundary >= size) {
+				break;
+			}
+			bounds.add(boundary);
+			next = boundary + chunkSize;
+		}
+		bounds.add(size);
+		
+		long [] vals = new long[bounds.size()];
+		for (int i = 0; i < vals.length; i++) {
+			vals[i] = bounds.get(i);
+		}
+		return vals;
+	}
+	
+	/**
+	 * Reads one chunk of the file and parses it line by line
+	 * @param channel the open file
+	 * @param start the offset of the first byte of the chunk
+	 * @param end the offset just past the last byte of the chunk
+	 * @param parser the parser for the lines of the chunk
+	 * @param cancelled the flag that stops the parse
+	 * @return the partial result of the chunk
+	 * @throws CancellationException if the flag is set before the chunk is read or before it is parsed
+	 */
+	private static <T> T parseChunk(FileChannel channel, long start, long end, LineParser<T> parser, AtomicBoolean cancelled) {
+		if (cancelled.get()) {
+			throw new CancellationException("Parse cancelled");
+		}
+		byte [] data = new byte[(int)(end - start)];
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		
+		try {
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, start + buffer.position()) < 0) {
+					break;
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		
+		if (cancelled.get()) {
+			throw new CancellationException("Parse cancelled");
+		}
+		T result = parser.newResult();
+		int lineStart = 0;
+		for (int i = 0; i <= data.length; i++) {
+			if (i == data.length || data[i] == '\n') {
+				int lineEnd = i;
+				if (lineEnd > lineStart && data[lineEnd - 1] == '\r') {
+					lineEnd--;
+				}
+				if (i < data.length || lineEnd > lineStart) {
+					parser.parseLine(result, data, lineStart, lineEnd);
+				}
+				lineStart = i + 1;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Sets the flag that cancels the parses the current thread starts without one
+	 * @param cancelled the flag, or null to parse without one
+	 */
+	public static void setCancelFlag(AtomicBoolean cancelled) {
+		if (cancelled == null) {
+			cancelFlag.remove();
+		} else {
+			cancelFlag.set(cancelled);
+		}
+	}
+	
+	/**
+	 * Sets the approximate size of the chunks files are split into
+	 * @param bytes the chunk size in bytes
+	 */
+	public static void setChunkSize(int bytes) {
+		if (bytes < 1) {
+			throw new IllegalArgumentException("Chunk size must be positive");
+		}
+		chunkSize = bytes;
+	}
+	
+} // end class ChunkedFileParser
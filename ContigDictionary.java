@@ -0,0 +1,95 @@
+/**
+ * Class to give every contig name one int ordinal, shared by the genome index, the overlap
+ * structures and the samples, so the sampling only handles ordinals and names are only looked
+ * up when something is written out. The genome fills the dictionary in the order of the fasta
+ * file; inputs read after it only look names up, and report names the genome does not have once
+ * @author Stephen Pollo
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+public class ContigDictionary {
+	
+	public static final int MAX_NAMES_REPORTED = 5;
+	
+	private ArrayList<String> names = new ArrayList<String>();
+	private HashMap<String, Integer> ordinals = new HashMap<String, Integer>();
+	
+	/**
+	 * Adds a contig, or finds it if it was already added
+	 * @param name the name of the contig
+	 * @return the ordinal of the contig
+	 */
+	public int add(String name) {
+		Integer ordinal = ordinals.get(name);
+		if (ordinal == null) {
+			ordinal = names.size();
+			ordinals.put(name, ordinal);
+			names.add(name);
+		}
+		return ordinal;
+	}
+	
+	/**
+	 * Getter for the ordinal of a contig
+	 * @param name the name of the contig
+	 * @return the ordinal of the contig, or -1 if the dictionary has no such contig
+	 */
+	public int getOrdinal(String name) {
+		Integer ordinal = ordinals.get(name);
+		if (ordinal == null) {
+			return -1;
+		}
+		return ordinal;
+	}
+	
+	/**
+	 * Getter for the name of a contig
+	 * @param ordinal the ordinal of the contig
+	 * @return the name of the contig
+	 */
+	public String getName(int ordinal) {
+		return names.get(ordinal);
+	}
+	
+	/**
+	 * Getter for the number of contigs
+	 * @return the number of contigs in the dictionary
+	 */
+	public int size() {
+		return names.size();
+	}
+	
+	/**
+	 * Reports the contigs of another input that the dictionary does not have, once, when the input is loaded
+	 * @param inputName the name of the input, used in the message
+	 * @param contigs the contig names found in the input
+	 * @return the number of contig names the dictionary does not have
+	 */
+	public int reportUnknown(String inputName, Collection<String> contigs) {
+		TreeSet<String> unknown = new TreeSet<String>();
+		for (String name : contigs) {
+			if (!ordinals.containsKey(name)) {
+				unknown.add(name);
+			}
+		}
+		if (!unknown.isEmpty()) {
+			StringBuilder list = new StringBuilder();
+			int listed = 0;
+			for (String name : unknown) {
+				if (listed == MAX_NAMES_REPORTED) {
+					list.append(", ...");
+					break;
+				}
+				list.append(listed == 0 ? "" : ", ").append(name);
+				listed++;
+			}
+			System.err.println("The " + inputName + " has " + unknown.size() + " contigs that are not in the genome and are ignored: " + list);
+		}
+		return unknown.size();
+	}
+	
+} // end class ContigDictionary
@@ -0,0 +1,183 @@
+/**
+ * Class to write the counts of the gene of interest in every sample of every structural variant
+ * to one dense binary matrix, so other tools can map the file and read the raw distributions
+ * without parsing the text logs. The file is sized when it is created and each variant's row is
+ * written in place as soon as its distribution is finished, so the rows can be read during the run
+ *
+ * Every number is little-endian. The file starts with a header of 32 bytes:
+ * the magic "SVCM", the version (uint16), the width of a count in bytes (uint16: 1, 2 or 4),
+ * the number of rows (uint32, one per variant of the vcf file), the number of columns
+ * (uint32, the samples per variant), the offset of the matrix (uint64) and the number of
+ * counts too large for the width, stored as the largest count it holds (uint64, written on close).
+ * Then a table of two int32 per row: the size of the variant and the number of samples
+ * written to its row, 0 until the row is finished or if the variant was not sampled.
+ * Then the id of every variant as a uint16 length and its UTF-8 bytes. The matrix starts at
+ * the next multiple of 64 bytes and holds the unsigned counts row by row, in the order the
+ * samples were drawn (a distribution found in the cache is in sorted order)
+ *
+ * A sample whose overlap query failed has no count and is stored as the value with every bit set
+ * (0xFF, 0xFFFF or 0xFFFFFFFF), which is never a count: the largest count of a 1 or 2 byte width is
+ * one below it, and of a 4 byte width is 0x7FFFFFFF
+ * @author Stephen Pollo
+ */
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+public class CountMatrixWriter {
+	
+	public static final byte [] MAGIC = {'S', 'V', 'C', 'M'};
+	public static final int VERSION = 2;
+	public static final int DEFAULT_WIDTH = 2;
+	public static final int HEADER_BYTES = 32;
+	public static final int ALIGNMENT = 64;
+	
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private String path;
+	private int width;
+	private int rows;
+	private int columns;
+	private long dataOffset;
+	private long maxCount;
+	private long missing; // the value of a sample without a count
+	private long clipped = 0;
+	
+	/**
+	 * Constructor. Writes the header and sizes the file for every row
+	 * @param matrixFile the file to write the matrix to
+	 * @param variants the structural variants of the vcf file, one row each
+	 * @param samples the number of samples of every variant
+	 * @param countWidth the width of a count in bytes: 1, 2 or 4
+	 * @throws IOException if the file cannot be written
+	 */
+	public CountMatrixWriter(String matrixFile, ArrayList<SVSize> variants, int samples, int countWidth) throws IOException {
+		if (countWidth != 1 && countWidth != 2 && countWidth != 4) {
+			throw new IllegalArgumentException("A count is 1, 2 or 4 bytes wide");
+		}
+		path = matrixFile;
+		width = countWidth;
+		rows = variants.size();
+		columns = samples;
+		missing = (1L << (8 * countWidth)) - 1;
+		maxCount = countWidth == 4 ? Integer.MAX_VALUE : missing - 1;
+		
+		// The table of sizes and sample counts, then the ids
+		ByteBuffer table = ByteBuffer.allocate(8 * rows).order(ByteOrder.LITTLE_ENDIAN);
+		ArrayList<byte[]> ids = new ArrayList<byte[]>(rows);
+		int idBytes = 0;
+		for (SVSize v : variants) {
+			table.putInt(v.getSize());
+			table.putInt(0);
+			byte [] id = v.getID().getBytes(StandardCharsets.UTF_8);
+			if (id.length > 0xFFFF) {
+				throw new IllegalArgumentException("The id of variant " + v.getID() + " is too long for the count matrix");
+			}
+			ids.add(id);
+			idBytes += 2 + id.length;
+		}
+		ByteBuffer idTable = ByteBuffer.allocate(idBytes).order(ByteOrder.LITTLE_ENDIAN);
+		for (byte [] id : ids) {
+			idTable.putShort((short)id.length);
+			idTable.put(id);
+		}
+		long tableEnd = HEADER_BYTES + 8L * rows + idBytes;
+		dataOffset = (tableEnd + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+		
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(MAGIC);
+		header.putShort((short)VERSION);
+		header.putShort((short)width);
+		header.putInt(rows);
+		header.putInt(columns);
+		header.putLong(dataOffset);
+		header.putLong(0);
+		
+		file = new RandomAccessFile(matrixFile, "rw");
+		file.setLength(0);
+		file.setLength(dataOffset + (long)rows * columns * width);
+		channel = file.getChannel();
+		writeFully(header.flip(), 0);
+		writeFully(table.flip(), HEADER_BYTES);
+		writeFully(idTable.flip(), HEADER_BYTES + 8L * rows);
+	}
+	
+	/**
+	 * Writes the counts of one variant to its row, then marks the row as finished.
+	 * Rows can be written from several threads at the same time
+	 * @param row the index of the variant in the vcf file
+	 * @param counts the count of the gene of interest in each sample, in the order they were drawn,
+	 * negative for a sample that failed
+	 */
+	public void writeRow(int row, int[] counts) {
+		if (row < 0 || row >= rows || counts.length != columns) {
+			throw new IllegalArgumentException("Row " + row + " of the count matrix needs " + columns + " counts");
+		}
+		ByteBuffer buf = ByteBuffer.allocate(columns * width).order(ByteOrder.LITTLE_ENDIAN);
+		int rowClipped = 0;
+		for (int i = 0; i < counts.length; i++) {
+			long count = counts[i];
+			if (count < 0) {
+				count = missing;
+			} else if (count > maxCount) {
+				count = maxCount;
+				rowClipped++;
+			}
+			if (width == 1) {
+				buf.put((byte)count);
+			} else if (width == 2) {
+				buf.putShort((short)count);
+			} else {
+				buf.putInt((int)count);
+			}
+		}
+		
+		ByteBuffer finished = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+		finished.putInt(0, columns);
+		try {
+			writeFully(buf.flip(), dataOffset + (long)row * columns * width);
+			writeFully(finished, HEADER_BYTES + 8L * row + 4);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		synchronized (this) {
+			clipped += rowClipped;
+		}
+	}
+	
+	/**
+	 * Writes a buffer at a position of the file
+	 * @param buf the bytes to write, from its position to its limit
+	 * @param position the position in the file
+	 * @throws IOException if the bytes cannot be written
+	 */
+	private void writeFully(ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining()) {
+			position += channel.write(buf, position);
+		}
+	}
+	
+	/**
+	 * Writes the number of clipped counts and closes the file
+	 */
+	public synchronized void close() {
+		try {
+			ByteBuffer count = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			count.putLong(0, clipped);
+			writeFully(count, 24);
+			file.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		if (clipped > 0) {
+			System.err.println(clipped + " counts in " + path + " were larger than " + maxCount + " and were stored as " + maxCount
+					+ ", use a wider --matrix-width");
+		}
+	}
+	
+} // end class CountMatrixWriter
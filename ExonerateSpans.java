@@ -0,0 +1,416 @@
+/**
+ * Class to collapse the records of an exonerate gff file into one set of spans per gene.
+ * The records of a gene on a chromosome (exons, alignment fragments, several protein hits)
+ * are merged where they overlap or touch, so a region overlaps a span of the gene exactly
+ * when it overlaps one of the gene's records, and unique gene counts do not change
+ * @author Stephen Pollo
+ */
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Scanner;
+import java.util.TreeSet;
+
+public class ExonerateSpans {
+	
+	public static final String SIDECAR_SUFFIX = ".spans.gff";
+	
+	private ContigDictionary contigs;
+	private ArrayList<String> geneIds = new ArrayList<String>();
+	private HashMap<String, Integer> geneOrdinals = new HashMap<String, Integer>();
+	
+	// Spans sorted by chromosome then start, in gff coordinates (1-based, inclusive)
+	private int [] spanChr;
+	private int [] spanStart;
+	private int [] spanEnd;
+	private int [] spanGene;
+	private int [] spanMaxEnd; // largest end of the spans of the chromosome up to and including each span
+	private int [] chrFirstSpan; // index of the first span of each chromosome, with the span count at the end
+	private int spanCount;
+	private int recordCount;
+	
+	/**
+	 * Constructor. Reads the exonerate gff file and collapses its records
+	 * @param exonerateFile path to the gff file created from mapping proteins to the genome with exonerate
+	 * @throws UncheckedIOException if the exonerate file cannot be found
+	 */
+	public ExonerateSpans(String exonerateFile) {
+		this(exonerateFile, null);
+	}
+	
+	/**
+	 * Constructor. Reads the exonerate gff file and collapses its records, numbering the chromosomes
+	 * with the contig dictionary of the genome so span and sample chromosomes are the same ordinals.
+	 * Records on contigs the genome does not have can never overlap a sample, they are reported once and dropped
+	 * @param exonerateFile path to the gff file created from mapping proteins to the genome with exonerate
+	 * @param genomeContigs the contig dictionary of the genome, or null to number the chromosomes of the file itself
+	 * @throws UncheckedIOException if the exonerate file cannot be found
+	 */
+	public ExonerateSpans(String exonerateFile, ContigDictionary genomeContigs) {
+		contigs = genomeContigs == null ? new ContigDictionary() : genomeContigs;
+		TreeSet<String> unknownContigs = new TreeSet<String>();
+		int [] recChr = new int[1024];
+		int [] recStart = new int[1024];
+		int [] recEnd = new int[1024];
+		int [] recGene = new int[1024];
+		int skipped = 0;
+		
+		/*
+		 * Attempt to read the file provided.
+		 * Catch exceptions thrown if errors occur
+		 */
+		try {
+			Scanner in = new Scanner(new File(exonerateFile));
+			String line;
+			String [] vals;
+			
+			while (in.hasNextLine()) {
+				line = in.nextLine();
+				
+				if (line.isEmpty() || line.charAt(0) == '#') {
+					// Comment line, skip
+					continue;
+				}
+				vals = line.split("\t");
+				if (vals.length < 9 || !vals[8].contains(AnalyzeGOIInSample.ID_START) || !vals[8].contains(AnalyzeGOIInSample.ID_END)) {
+					skipped++;
+					continue;
+				}
+				
+				if (recordCount == recChr.length) {
+					recChr = Arrays.copyOf(recChr, recordCount * 2);
+					recStart = Arrays.copyOf(recStart, recordCount * 2);
+					recEnd = Arrays.copyOf(recEnd, recordCount * 2);
+					recGene = Arrays.copyOf(recGene, recordCount * 2);
+				}
+				int chr = genomeContigs == null ? contigs.add(vals[0]) : contigs.getOrdinal(vals[0]);
+				if (chr < 0) {
+					unknownContigs.add(vals[0]);
+					continue;
+				}
+				recChr[recordCount] = chr;
+				recStart[recordCount] = Integer.parseInt(vals[3]);
+				recEnd[recordCount] = Integer.parseInt(vals[4]);
+				recGene[recordCount] = ordinal(AnalyzeGOIInSample.parseGeneId(vals[8]), geneIds, geneOrdinals);
+				recordCount++;
+			} // end while reading file
+			
+			in.close();
+		} // end file reading try block
+		
+		/*
+		 * Pass the error on to the caller, which decides
+		 * whether the program should stop
+		 */
+		catch(FileNotFoundException e) {
+			throw new UncheckedIOException("Could not find the exonerate gff file " + exonerateFile, e);
+		}
+		
+		if (skipped > 0) {
+			System.err.println("Skipped " + skipped + " exonerate records without a gene id");
+		}
+		contigs.reportUnknown("exonerate file", unknownContigs);
+		collapse(recChr, recStart, recEnd, recGene);
+	} // end constructor
+	
+	/**
+	 * Merges the overlapping or touching records of each gene on each chromosome,
+	 * then sorts the merged spans by chromosome and start
+	 * @param recChr the chromosome ordinal of each record
+	 * @param recStart the start of each record
+	 * @param recEnd the end of each record
+	 * @param recGene the gene ordinal of each record
+	 */
+	private void collapse(int[] recChr, int[] recStart, int[] recEnd, int[] recGene) {
+		Integer [] order = new Integer[recordCount];
+		for (int i = 0; i < recordCount; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> {
+			if (recChr[a] != recChr[b]) {
+				return Integer.compare(recChr[a], recChr[b]);
+			}
+			if (recGene[a] != recGene[b]) {
+				return Integer.compare(recGene[a], recGene[b]);
+			}
+			return Integer.compare(recStart[a], recStart[b]);
+		});
+		
+		int [] chr = new int[recordCount];
+		int [] start = new int[recordCount];
+		int [] end = new int[recordCount];
+		int [] gene = new int[recordCount];
+		int count = 0;
+		
+		for (int i = 0; i < recordCount; i++) {
+			int r = order[i];
+			if (count > 0 && chr[count - 1] == recChr[r] && gene[count - 1] == recGene[r] && recStart[r] <= end[count - 1] + 1) {
+				// Overlaps or touches the current span of the gene, extend it
+				end[count - 1] = Math.max(end[count - 1], recEnd[r]);
+			} else {
+				chr[count] = recChr[r];
+				start[count] = recStart[r];
+				end[count] = recEnd[r];
+				gene[count] = recGene[r];
+				count++;
+			}
+		}
+		
+		Integer [] spanOrder = new Integer[count];
+		for (int i = 0; i < count; i++) {
+			spanOrder[i] = i;
+		}
+		Arrays.sort(spanOrder, (a, b) -> {
+			if (chr[a] != chr[b]) {
+				return Integer.compare(chr[a], chr[b]);
+			}
+			return Integer.compare(start[a], start[b]);
+		});
+		
+		spanCount = count;
+		spanChr = new int[count];
+		spanStart = new int[count];
+		spanEnd = new int[count];
+		spanGene = new int[count];
+		for (int i = 0; i < count; i++) {
+			spanChr[i] = chr[spanOrder[i]];
+			spanStart[i] = start[spanOrder[i]];
+			spanEnd[i] = end[spanOrder[i]];
+			spanGene[i] = gene[spanOrder[i]];
+		}
+		
+		// Index the spans of each chromosome for overlap queries
+		spanMaxEnd = new int[count];
+		chrFirstSpan = new int[contigs.size() + 1];
+		int c = 0;
+		for (int i = 0; i < count; i++) {
+			while (c <= spanChr[i]) {
+				chrFirstSpan[c] = i;
+				c++;
+			}
+			if (i > 0 && spanChr[i - 1] == spanChr[i]) {
+				spanMaxEnd[i] = Math.max(spanMaxEnd[i - 1], spanEnd[i]);
+			} else {
+				spanMaxEnd[i] = spanEnd[i];
+			}
+		}
+		while (c < chrFirstSpan.length) {
+			chrFirstSpan[c] = count;
+			c++;
+		}
+	}
+	
+	/**
+	 * Finds the ordinal of a name, adding it if it is new
+	 * @param name the name to look up
+	 * @param names the names in order of their ordinals
+	 * @param ordinals the ordinal of each name
+	 * @return the ordinal of the name
+	 */
+	private static int ordinal(String name, ArrayList<String> names, HashMap<String, Integer> ordinals) {
+		Integer ordinal = ordinals.get(name);
+		if (ordinal == null) {
+			ordinal = names.size();
+			ordinals.put(name, ordinal);
+			names.add(name);
+		}
+		return ordinal;
+	}
+	
+	/**
+	 * Writes the spans as a gff file that bedtools can search in place of the exonerate file.
+	 * Only the gene id is kept in the attributes column
+	 * @param sidecarFile the path of the file to write
+	 */
+	public void writeSidecar(String sidecarFile) {
+		try {
+			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(sidecarFile)));
+			for (int i = 0; i < spanCount; i++) {
+				out.write(contigs.getName(spanChr[i]) + "\tcollapsed\tspan\t" + spanStart[i] + "\t" + spanEnd[i] + "\t.\t.\t.\t"
+						+ AnalyzeGOIInSample.ID_START + geneIds.get(spanGene[i]) + AnalyzeGOIInSample.ID_END + "\n");
+			}
+			out.close();
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Finds the collapsed version of an exonerate file, building it next to the
+	 * exonerate file if it does not exist or is older than the exonerate file
+	 * @param exonerateFile path to the gff file created from mapping proteins to the genome with exonerate
+	 * @return the path of the collapsed gff file
+	 */
+	public static String sidecarFor(String exonerateFile) {
+		String sidecar = exonerateFile + SIDECAR_SUFFIX;
+		File sidecarFile = new File(sidecar);
+		
+		if (!sidecarFile.exists() || sidecarFile.lastModified() < new File(exonerateFile).lastModified()) {
+			ExonerateSpans spans = new ExonerateSpans(exonerateFile);
+			spans.writeSidecar(sidecar);
+			System.err.println("Collapsed " + spans.getRecordCount() + " exonerate records into "
+					+ spans.getSpanCount() + " spans of " + spans.getGeneCount() + " genes in " + sidecar);
+		}
+		
+		return sidecar;
+	}
+	
+	/**
+	 * Getter for the contig dictionary the chromosomes of the spans are numbered with
+	 * @return the contig dictionary
+	 */
+	public ContigDictionary getContigs() {
+		return contigs;
+	}
+	
+	/**
+	 * Getter for the position of a chromosome among the chromosomes of the spans
+	 * @param chr the name of the chromosome
+	 * @return the ordinal of the chromosome, or -1 if the chromosome is not in the contig dictionary of the spans
+	 */
+	public int getChrOrdinal(String chr) {
+		return contigs.getOrdinal(chr);
+	}
+	
+	/**
+	 * @param chr the ordinal of a chromosome
+	 * @return the index of the first span on the chromosome
+	 */
+	public int getFirstSpan(int chr) {
+		return chrFirstSpan[chr];
+	}
+	
+	/**
+	 * @param chr the ordinal of a chromosome
+	 * @return the index just past the last span on the chromosome
+	 */
+	public int getEndSpan(int chr) {
+		return chrFirstSpan[chr + 1];
+	}
+	
+	/**
+	 * Finds the first span of a chromosome that starts after a position
+	 * @param chr the ordinal of the chromosome
+	 * @param pos the position, in gff coordinates
+	 * @return the index of the first span on the chromosome with a start > pos, or getEndSpan(chr) if there is none
+	 */
+	public int findFirstSpanAfter(int chr, int pos) {
+		int lo = chrFirstSpan[chr];
+		int hi = chrFirstSpan[chr + 1];
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (spanStart[mid] <= pos) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+	
+	/**
+	 * @param i the index of a span
+	 * @return the ordinal of the chromosome of the span
+	 */
+	public int getSpanChr(int i) {
+		return spanChr[i];
+	}
+	
+	/**
+	 * @param i the index of a span
+	 * @return the start of the span, in gff coordinates
+	 */
+	public int getSpanStart(int i) {
+		return spanStart[i];
+	}
+	
+	/**
+	 * @param i the index of a span
+	 * @return the end of the span, in gff coordinates
+	 */
+	public int getSpanEnd(int i) {
+		return spanEnd[i];
+	}
+	
+	/**
+	 * @param i the index of a span
+	 * @return the largest end of the spans of its chromosome up to and including this one
+	 */
+	public int getSpanMaxEnd(int i) {
+		return spanMaxEnd[i];
+	}
+	
+	/**
+	 * @param i the index of a span
+	 * @return the ordinal of the gene of the span
+	 */
+	public int getSpanGene(int i) {
+		return spanGene[i];
+	}
+	
+	/**
+	 * @param gene the ordinal of a gene
+	 * @return the id of the gene
+	 */
+	public String getGeneId(int gene) {
+		return geneIds.get(gene);
+	}
+	
+	/**
+	 * @return the number of exonerate records read
+	 */
+	public int getRecordCount() {
+		return recordCount;
+	}
+	
+	/**
+	 * @return the number of spans left after collapsing
+	 */
+	public int getSpanCount() {
+		return spanCount;
+	}
+	
+	/**
+	 * @return the number of chromosomes in the contig dictionary of the spans, some of which may have no span
+	 */
+	public int getChrCount() {
+		return contigs.size();
+	}
+	
+	/**
+	 * @return the number of distinct gene ids
+	 */
+	public int getGeneCount() {
+		return geneIds.size();
+	}
+	
+	public static void main(String[] args) {
+		
+		/*
+		 * Need: 1) exonerate mapping file in gff, 2) optional path of the collapsed file to write
+		 */
+		if (args.length < 1 || args.length > 2) {
+			System.out.println("You MUST provide the exonerate mapping file in gff format, "
+					+ "and optionally the path of the collapsed file (default <exonerate file>" + SIDECAR_SUFFIX + ")");
+			return;
+		}
+		
+		ExonerateSpans spans = new ExonerateSpans(args[0]);
+		String sidecar = args.length == 2 ? args[1] : args[0] + SIDECAR_SUFFIX;
+		spans.writeSidecar(sidecar);
+		System.out.println("Collapsed " + spans.getRecordCount() + " exonerate records into "
+				+ spans.getSpanCount() + " spans of " + spans.getGeneCount() + " genes in " + sidecar);
+	
+	} // end main
+	
+} // end class ExonerateSpans
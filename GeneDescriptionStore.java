@@ -0,0 +1,235 @@
+/**
+ * Class to hold the description of every gene in little memory. Gene ids are found through an
+ * open addressing hash table of gene ordinals, and each distinct description is stored once as
+ * UTF-8 bytes in a shared pool, so the many genes with the same description share it. Description
+ * strings are only built the first time they are asked for, then kept for later lookups
+ *
+ * Genes are added with put() and the store is then trimmed; after that it is only read from
+ * and can be shared by every thread
+ * @author Stephen Pollo
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class GeneDescriptionStore {
+	
+	private String [] ids = new String[16];
+	private int [] descOf = new int[16]; // ordinal of the description of each gene
+	private int geneCount = 0;
+	private int [] table = new int[32]; // gene ordinal + 1 in the slot of its id, 0 for an empty slot
+	
+	private byte [] pool = new byte[1024];
+	private int [] poolOffsets = new int[17]; // description i is pool[poolOffsets[i]] to pool[poolOffsets[i + 1]]
+	private int descCount = 0;
+	private HashMap<String, Integer> descIndex = new HashMap<String, Integer>(); // only kept until trim()
+	
+	private volatile String [] descCache; // descriptions already built as strings
+	private ConcurrentHashMap<String, boolean[]> goiMatches = new ConcurrentHashMap<String, boolean[]>();
+	
+	/**
+	 * Adds a gene, replacing the description of a gene already in the store
+	 * @param id the gene id
+	 * @param description the description of the gene
+	 */
+	public void put(String id, String description) {
+		if (descIndex == null) {
+			throw new IllegalStateException("Genes cannot be added to a store after it is trimmed");
+		}
+		Integer desc = descIndex.get(description);
+		if (desc == null) {
+			desc = addDescription(description);
+			descIndex.put(description, desc);
+		}
+		
+		int gene = find(id);
+		if (gene >= 0) {
+			descOf[gene] = desc;
+			return;
+		}
+		if (geneCount == ids.length) {
+			ids = Arrays.copyOf(ids, ids.length * 2);
+			descOf = Arrays.copyOf(descOf, descOf.length * 2);
+		}
+		ids[geneCount] = id;
+		descOf[geneCount] = desc;
+		geneCount++;
+		if (geneCount * 2 > table.length) {
+			rehash(table.length * 2);
+		} else {
+			insert(geneCount - 1);
+		}
+	}
+	
+	/**
+	 * Appends a description to the pool
+	 * @param description the description
+	 * @return the ordinal of the description
+	 */
+	private int addDescription(String description) {
+		byte [] bytes = description.getBytes(StandardCharsets.UTF_8);
+		int offset = poolOffsets[descCount];
+		if (offset + bytes.length > pool.length) {
+			pool = Arrays.copyOf(pool, Math.max(pool.length * 2, offset + bytes.length));
+		}
+		System.arraycopy(bytes, 0, pool, offset, bytes.length);
+		if (descCount + 2 > poolOffsets.length) {
+			poolOffsets = Arrays.copyOf(poolOffsets, poolOffsets.length * 2);
+		}
+		poolOffsets[descCount + 1] = offset + bytes.length;
+		return descCount++;
+	}
+	
+	/**
+	 * Frees the memory only needed while genes are being added. No genes can be added afterwards
+	 */
+	public void trim() {
+		ids = Arrays.copyOf(ids, geneCount);
+		descOf = Arrays.copyOf(descOf, geneCount);
+		pool = Arrays.copyOf(pool, poolOffsets[descCount]);
+		poolOffsets = Arrays.copyOf(poolOffsets, descCount + 1);
+		descIndex = null;
+		descCache = new String[descCount];
+	}
+	
+	/**
+	 * Spreads the hash of an id over the slots of the table
+	 * @param id the gene id
+	 * @return the first slot to probe
+	 */
+	private int slot(String id) {
+		int h = id.hashCode() * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & (table.length - 1);
+	}
+	
+	/**
+	 * Puts a gene in the first free slot of its probe sequence
+	 * @param gene the ordinal of the gene
+	 */
+	private void insert(int gene) {
+		int s = slot(ids[gene]);
+		while (table[s] != 0) {
+			s = (s + 1) & (table.length - 1);
+		}
+		table[s] = gene + 1;
+	}
+	
+	/**
+	 * Rebuilds the table with a new number of slots
+	 * @param slots the number of slots, a power of two
+	 */
+	private void rehash(int slots) {
+		table = new int[slots];
+		for (int i = 0; i < geneCount; i++) {
+			insert(i);
+		}
+	}
+	
+	/**
+	 * Finds the ordinal of a gene
+	 * @param id the gene id
+	 * @return the ordinal of the gene, or -1 if it is not in the store
+	 */
+	public int find(String id) {
+		int s = slot(id);
+		while (table[s] != 0) {
+			if (ids[table[s] - 1].equals(id)) {
+				return table[s] - 1;
+			}
+			s = (s + 1) & (table.length - 1);
+		}
+		return -1;
+	}
+	
+	/**
+	 * Getter for the description of a gene
+	 * @param id the gene id
+	 * @return the description, or null if the gene is not in the store
+	 */
+	public String get(String id) {
+		int gene = find(id);
+		if (gene < 0) {
+			return null;
+		}
+		return getDescription(descOf[gene]);
+	}
+	
+	/**
+	 * Getter for a description, building its string the first time it is asked for
+	 * @param desc the ordinal of the description
+	 * @return the description
+	 */
+	private String getDescription(int desc) {
+		String [] cache = descCache;
+		if (cache == null) {
+			// Not trimmed yet, nothing is cached while the pool can still move
+			return new String(pool, poolOffsets[desc], poolOffsets[desc + 1] - poolOffsets[desc], StandardCharsets.UTF_8);
+		}
+		String s = cache[desc];
+		if (s == null) {
+			// Two threads building the same string at once both get an equal string
+			s = new String(pool, poolOffsets[desc], poolOffsets[desc + 1] - poolOffsets[desc], StandardCharsets.UTF_8);
+			cache[desc] = s;
+		}
+		return s;
+	}
+	
+	/**
+	 * Checks if a gene is a gene of interest. Each description is matched against a gene of
+	 * interest only once, the same way AnalyzeGOIInSample.countGOI() matches it
+	 * @param id the gene id
+	 * @param goi the name of the gene of interest
+	 * @return true if the gene has a description that matches the gene of interest
+	 */
+	public boolean isGOI(String id, String goi) {
+		int gene = find(id);
+		if (gene < 0) {
+			return false;
+		}
+		boolean [] matches = goiMatches.computeIfAbsent(goi, g -> {
+			boolean [] m = new boolean[descCount];
+			for (int i = 0; i < descCount; i++) {
+				String desc = getDescription(i);
+				m[i] = desc.equalsIgnoreCase(g) || desc.contains(g) || desc.contains(g.toLowerCase());
+			}
+			return m;
+		});
+		return matches[descOf[gene]];
+	}
+	
+	/**
+	 * Getter for the number of genes
+	 * @return the number of genes in the store
+	 */
+	public int getGeneCount() {
+		return geneCount;
+	}
+	
+	/**
+	 * Getter for the number of distinct descriptions
+	 * @return the number of descriptions in the pool
+	 */
+	public int getDescriptionCount() {
+		return descCount;
+	}
+	
+	/**
+	 * Lists every gene and its description sorted by id, in the same format as a map
+	 * @return the genes as {id=description, id=description}
+	 */
+	public String toString() {
+		String [] sorted = Arrays.copyOf(ids, geneCount);
+		Arrays.sort(sorted);
+		StringBuilder sb = new StringBuilder("{");
+		for (int i = 0; i < sorted.length; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(sorted[i]).append('=').append(get(sorted[i]));
+		}
+		return sb.append('}').toString();
+	}
+	
+} // end class GeneDescriptionStore
@@ -5,8 +5,10 @@
  */
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.Arrays;
+import java.util.Random;
 
 public class GenomeSample {
 
@@ -15,31 +17,67 @@ public class GenomeSample {
 	 * @author Stephen Pollo
 	 */
 	private class Chrs {
-		String chr;
+		int chr; // ordinal of the chromosome in the contig dictionary
 		int start0; // 0-index of base 1 of the chromosome
 		int endLength; // index of last base of the chromosome
 		
 		/**
 		 * Constructor
-		 * @param chr1 the chromosome
+		 * @param chr1 the ordinal of the chromosome
 		 * @param len the final length of the chromosome
 		 */
-		public Chrs(String chr1, int start, int len) {
+		public Chrs(int chr1, int start, int len) {
 			chr = chr1;
 			start0 = start;
 			endLength = len;
 		}
 		
 		public String toString() {
-			String s = chr + "\t" + start0 + "\t" + endLength;
+			String s = contigs.getName(chr) + "\t" + start0 + "\t" + endLength;
 			return s;
 		}
 	}
 	
+	/**
+	 * Defines the headers and base counts found in one chunk of the fasta file
+	 * @author Stephen Pollo
+	 */
+	private static class FastaChunk {
+		long leadingBases = 0; // bases before the first header of the chunk
+		ArrayList<String> headers = new ArrayList<String>();
+		long [] bases = new long[16]; // bases after each header, up to the end of the chunk
+	}
+	
+	/**
+	 * Defines how the lines of a chunk of the fasta file are counted
+	 * @author Stephen Pollo
+	 */
+	private static class FastaChunkParser implements ChunkedFileParser.LineParser<FastaChunk> {
+		
+		public FastaChunk newResult() {
+			return new FastaChunk();
+		}
+		
+		public void parseLine(FastaChunk chunk, byte[] data, int start, int end) {
+			if (end > start && data[start] == '>') {
+				chunk.headers.add(new String(data, start + 1, end - start - 1, StandardCharsets.UTF_8));
+				if (chunk.headers.size() > chunk.bases.length) {
+					chunk.bases = Arrays.copyOf(chunk.bases, chunk.bases.length * 2);
+				}
+			} else if (chunk.headers.isEmpty()) {
+				chunk.leadingBases += end - start;
+			} else {
+				chunk.bases[chunk.headers.size() - 1] += end - start;
+			}
+		}
+	}
+	
 	private ArrayList<Chrs> genomeIndex = new ArrayList<Chrs>();
+	private ContigDictionary contigs = new ContigDictionary();
 	private int genomeSize;
 	private int sampleSize;
 	private int largestChrSize;
+	private Random defaultRandom = new Random();
 	
 	/**
 	 * Alternate constructor, to specify a size right away
@@ -54,6 +92,7 @@ public class GenomeSample {
 	/**
 	 * Main constructor
 	 * @param genome the genome in fasta format
+	 * @throws UncheckedIOException if the genome file cannot be found or read
 	 */
 	public GenomeSample(File genome) {
 		largestChrSize = 0;
@@ -63,75 +102,85 @@ public class GenomeSample {
 		 * Catch exceptions thrown if errors occur
 		 */
 		try {
-		    Scanner in = new Scanner(genome);
+		    // Chunks of the file are scanned for headers and bases in parallel
+		    ArrayList<FastaChunk> chunks = ChunkedFileParser.parse(genome.getPath(), new FastaChunkParser());
 
-		    String line;
 		    String currentChr = "";
 		    int totalBases = 0;
 		    
-		    while (in.hasNextLine()) {
-		    	line = in.nextLine();
+		    for (int i = 0; i < chunks.size(); i++) {
+		    	FastaChunk chunk = chunks.get(i);
+		
+		    	// Bases before the first header of a chunk continue the chromosome of the previous chunk
+		    	totalBases += (int)chunk.leadingBases;
 		    	
 		    	// Populate the genome index
-		    	
-		    	if (line.charAt(0) == '>') {
-		    		if (currentChr.equalsIgnoreCase("")) {
-		    			// Do nothing
-		    		}
-		    		else {
+		    	for (int j = 0; j < chunk.headers.size(); j++) {
+		    		if (!currentChr.equalsIgnoreCase("")) {
 		    			// Add previous chromosome to index
-		    			if (genomeIndex.size() == 0) {
-		    				Chrs c = new Chrs(currentChr, 0, totalBases - 1);
-		    				genomeIndex.add(c);
-		    				largestChrSize = totalBases;
-		    			}
-		    			else {
-		    				Chrs c = new Chrs(currentChr, genomeIndex.get(genomeIndex.size() - 1).endLength + 1, totalBases - 1);
-			    			genomeIndex.add(c);
-			    			if ((c.endLength - c.start0 + 1) > largestChrSize) {
-			    				largestChrSize = c.endLength - c.start0 + 1;
-			    			}
-		    			}
-		    			
+		    			addChr(currentChr, totalBases);
 		    		}
-		    		
-		    		currentChr = line.substring(1);
-		    	}
-		    	else {
-		    		totalBases += line.length();
+		    		currentChr = chunk.headers.get(j);
+		    		totalBases += (int)chunk.bases[j];
 		    	}
 		    	
-		    } // end while reading file
+		    } // end while merging chunks
 		    
-		    Chrs c = new Chrs(currentChr, genomeIndex.get(genomeIndex.size() - 1).endLength + 1, totalBases - 1);
-		    genomeIndex.add(c);
-		    if ((c.endLength - c.start0 + 1) > largestChrSize) {
-				largestChrSize = c.endLength - c.start0 + 1;
-			}
+		    addChr(currentChr, totalBases);
 		    
 		    genomeSize = totalBases;
-		    
-		    in.close();
 		} // end file reading try block
 
 		/*
-		 * Print the error if one was found and terminate
-		 * the program
+		 * Pass the error on to the caller, which decides
+		 * whether the program should stop
 		 */
 		catch(FileNotFoundException e) {
-			e.toString();
-			System.out.println("Problem finding genome file");
-			usage();
-			System.exit(1);
+			throw new UncheckedIOException("Problem finding genome file " + genome.getPath(), e);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Problem reading genome file " + genome.getPath(), e);
 		}
 	} // end constructor
 	
+	/**
+	 * Adds a chromosome to the end of the genome index
+	 * @param chr the name of the chromosome
+	 * @param totalBases the number of bases in the genome up to and including this chromosome
+	 * @throws IOException if the genome already has a chromosome of the same name
+	 */
+	private void addChr(String chr, int totalBases) throws IOException {
+		int start = 0;
+		if (genomeIndex.size() > 0) {
+			start = genomeIndex.get(genomeIndex.size() - 1).endLength + 1;
+		}
+		// The position of a chromosome in the index is its ordinal in the dictionary
+		if (contigs.add(chr) != genomeIndex.size()) {
+			throw new IOException("The chromosome " + chr + " appears more than once");
+		}
+		Chrs c = new Chrs(genomeIndex.size(), start, totalBases - 1);
+		genomeIndex.add(c);
+		if ((c.endLength - c.start0 + 1) > largestChrSize) {
+			largestChrSize = c.endLength - c.start0 + 1;
+		}
+	}
+	
 	/**
 	 * Method to randomly find a sample region from the provided genome of the specified size
 	 * @param size the size of region to sample
 	 * @return an object of type Sample that contains the chromosome and coordinates of the sample
 	 */
 	public Sample getRandomSample(int size) {
+		return getRandomSample(size, defaultRandom);
+	}
+	
+	/**
+	 * Method to randomly find a sample region from the provided genome of the specified size,
+	 * drawing all random positions from the given generator so that seeded runs are reproducible
+	 * @param size the size of region to sample
+	 * @param rand the random number generator to draw positions from
+	 * @return an object of type Sample that contains the chromosome and coordinates of the sample
+	 */
+	public Sample getRandomSample(int size, Random rand) {
 		if (size > largestChrSize) {
 			// Sample of this size cannot be taken
 			throw new IllegalArgumentException("The size " + size + " is too big to sample from this genome");
@@ -143,7 +192,7 @@ public class GenomeSample {
 		Sample s = null;
 		
 		while(noFit) {
-			int[] sample = getSampleSpot();
+			int[] sample = getSampleSpot(rand);
 			int randSpot = sample[0];
 			int chosenChrIndex = sample[1];
 			
@@ -152,7 +201,7 @@ public class GenomeSample {
 				// Complete sample fits with extension downstream, return sample
 				sampleIndexStart = randSpot;
 				sampleIndexStop = randSpot + size;
-				s = new Sample(genomeIndex.get(chosenChrIndex).chr, sampleIndexStart - genomeIndex.get(chosenChrIndex).start0 + 1, 
+				s = new Sample(contigs, chosenChrIndex, sampleIndexStart - genomeIndex.get(chosenChrIndex).start0 + 1, 
 						sampleIndexStop - genomeIndex.get(chosenChrIndex).start0 + 1);
 				noFit = false;
 			}
@@ -166,16 +215,91 @@ public class GenomeSample {
 		return s;
 	}
 	
+	/**
+	 * Method to lay the valid starts of a region size on every chromosome end to end, once for
+	 * all the regions of that size placed with getSampleAt()
+	 * @param size the size of region to sample
+	 * @return a long array with one more entry than there are chromosomes: entry i is the number
+	 * of valid starts on the chromosomes before chromosome i, the last entry is the total
+	 * @throws IllegalArgumentException if no region of the size fits on the genome
+	 */
+	public long[] getCumulativeStarts(int size) {
+		long [] cumulativeStarts = new long[genomeIndex.size() + 1];
+		for (int i = 0; i < genomeIndex.size(); i++) {
+			cumulativeStarts[i + 1] = cumulativeStarts[i] + Math.max(0, getChrLength(i) - size);
+		}
+		if (cumulativeStarts[genomeIndex.size()] == 0) {
+			// Sample of this size cannot be taken
+			throw new IllegalArgumentException("The size " + size + " is too big to sample from this genome");
+		}
+		return cumulativeStarts;
+	}
+	
+	/**
+	 * Method to find the sample region at a position over the valid starts of the given size.
+	 * The valid starts of every chromosome are laid end to end, so a uniform position gives
+	 * the same distribution of regions as getRandomSample()
+	 * @param size the size of region to sample
+	 * @param position the position of the start among the valid starts, in [0, 1)
+	 * @return an object of type Sample that contains the chromosome and coordinates of the sample
+	 */
+	public Sample getSampleAt(int size, double position) {
+		return getSampleAt(size, position, getCumulativeStarts(size));
+	}
+	
+	/**
+	 * Method to find the sample region at a position over the valid starts of the given size,
+	 * searching starts laid end to end by getCumulativeStarts() instead of every chromosome
+	 * @param size the size of region to sample
+	 * @param position the position of the start among the valid starts, in [0, 1)
+	 * @param cumulativeStarts the valid starts of the size from getCumulativeStarts()
+	 * @return an object of type Sample that contains the chromosome and coordinates of the sample
+	 */
+	public Sample getSampleAt(int size, double position, long[] cumulativeStarts) {
+		long validStarts = cumulativeStarts[cumulativeStarts.length - 1];
+		long r = Math.min((long)(position * validStarts), validStarts - 1);
+		
+		// The first chromosome whose starts end after r, skipping the ones the size does not fit on
+		int lo = 0;
+		int hi = cumulativeStarts.length - 2;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (cumulativeStarts[mid + 1] <= r) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		sampleSize = size;
+		int start = (int)(r - cumulativeStarts[lo]) + 1;
+		return new Sample(contigs, lo, start, start + size);
+	}
+	
+	/**
+	 * Method to randomly place the start of a region on the genome, drawing the position
+	 * the same way getRandomSample() does, without fixing the size of the region
+	 * @param rand the random number generator to draw the position from
+	 * @return an integer array of size 3: the index in genomeIndex of the chromosome, the start of the
+	 * region on the chromosome as used by Sample, and the largest region size that fits from that start
+	 */
+	public int[] getRandomAnchor(Random rand) {
+		int[] sample = getSampleSpot(rand);
+		Chrs c = genomeIndex.get(sample[1]);
+		int[] vals = {sample[1], sample[0] - c.start0 + 1, c.endLength - sample[0]};
+		return vals;
+	}
+	
 	/**
 	 * Method to randomly select from the genome a chromosome (and position) 
+	 * @param rand the random number generator to draw the position from
 	 * @return an integer array of size 2: the random coordinate in the genome to use for the sample, 
 	 * and the index in genomeIndex of the corresponding chromosome
 	 */
-	private int[] getSampleSpot() {
+	private int[] getSampleSpot(Random rand) {
 		int randomSpot = -1;
 		int chosenChr = -1;
 		
-		randomSpot = (int)(Math.random()*(genomeSize - 1));
+		randomSpot = (int)(rand.nextDouble()*(genomeSize - 1));
 
 		for (int i = 0; i < genomeIndex.size(); i++) {
 			if (randomSpot <= genomeIndex.get(i).endLength) {
@@ -198,6 +322,57 @@ public class GenomeSample {
 		return genomeSize;
 	}
 	
+	/**
+	 * Getter for the position of a chromosome in the genome index
+	 * @param chr the name of the chromosome
+	 * @return the ordinal of the chromosome, or -1 if the genome has no such chromosome
+	 */
+	public int getChrOrdinal(String chr) {
+		return contigs.getOrdinal(chr);
+	}
+	
+	/**
+	 * Getter for the name of a chromosome in the genome index
+	 * @param ordinal the position of the chromosome in the genome index
+	 * @return the name of the chromosome
+	 */
+	public String getChrName(int ordinal) {
+		return contigs.getName(ordinal);
+	}
+	
+	/**
+	 * Getter for the contig dictionary of the genome, for the other inputs to share
+	 * @return the dictionary of the chromosomes in the order of the genome index
+	 */
+	public ContigDictionary getContigs() {
+		return contigs;
+	}
+	
+	/**
+	 * Getter for largestChrSize
+	 * @return the size of the largest chromosome, the largest region that can be sampled
+	 */
+	public int getLargestChrSize() {
+		return largestChrSize;
+	}
+	
+	/**
+	 * Getter for the number of chromosomes in the genome index
+	 * @return the number of chromosomes
+	 */
+	public int getChrCount() {
+		return genomeIndex.size();
+	}
+	
+	/**
+	 * Getter for the length of a chromosome in the genome index
+	 * @param ordinal the position of the chromosome in the genome index
+	 * @return the number of bases in the chromosome
+	 */
+	public int getChrLength(int ordinal) {
+		return genomeIndex.get(ordinal).endLength - genomeIndex.get(ordinal).start0 + 1;
+	}
+	
 	/**
 	 * Getter for sampleSize
 	 * @return the size of the samples randomly selected from the genome
@@ -212,7 +387,7 @@ public class GenomeSample {
 	 */
 	public void printIndex() {
 		for (int i = 0; i < genomeIndex.size(); i++) {
-			System.out.println(genomeIndex.get(i).chr + "\t" + genomeIndex.get(i).start0 + "\t" + genomeIndex.get(i).endLength);
+			System.out.println(contigs.getName(i) + "\t" + genomeIndex.get(i).start0 + "\t" + genomeIndex.get(i).endLength);
 		}
 	}
 	
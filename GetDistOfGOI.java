@@ -10,20 +10,45 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class GetDistOfGOI {
 
-	public final int NUMBER_OF_SAMPLES = 10000;
+	public static final int DEFAULT_NUMBER_OF_SAMPLES = 10000;
+	private static int sampleCount = DEFAULT_NUMBER_OF_SAMPLES;
+	private static int pipelineDepth = 0;
+	private static final long STAGE_POLL_MILLIS = 100; // how often a waiting stage of the pipeline checks if the others failed
+	
+	public final int NUMBER_OF_SAMPLES;
+	public final int PIPELINE_DEPTH; // batches in the sampling pipeline at once, 0 to take the samples one stage after the other
 	private String goi;
 	private int sampleSize;
 	private int [] samples;
 	private GenomeSample gs;
 	private BedtoolsWrapper bw;
 	private AnalyzeGOIInSample ags;
-	private ArrayList<String> bedOut;
-	private ArrayList<String> descsOut;
-	private ArrayList<Sample> genomeSamples;
+	private ArrayList<ArrayList<String>> overlaps = new ArrayList<ArrayList<String>>(); // bedtools output of each sample of a batch
+	private AnalyzeGOIInSample.QueryResult query = new AnalyzeGOIInSample.QueryResult();
+	private SampleBuffer genomeSamples;
 	private String logPrefix;
+	private Random rand;
+	private WindowPlacement placement = null;
+	private long [] placementStarts = null; // valid starts of the placed size laid end to end, once per distribution
+	private SampleReplayStore.Recording recording = null;
+	private int activeSamples; // samples taken by the current distribution, at most NUMBER_OF_SAMPLES
+	private HashMap<String, Integer> loggedSamples = null; // samples already in the logs of each id, when logs are continued
 	
 	/**
 	 * Constructor.
@@ -32,18 +57,32 @@ public class GetDistOfGOI {
 	 * @param analyze the AnalyzeGOIInSample object that will be used to get the number of genes of interest
 	 */
 	public GetDistOfGOI(GenomeSample genomeSample, BedtoolsWrapper bedtools, AnalyzeGOIInSample analyze, String prefix) {
+		this(genomeSample, bedtools, analyze, prefix, true);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param genomeSample the GenomeSample object that will be used to sample the genome
+	 * @param bedtools the BedtoolsWrapper object that will be used to call bedtools
+	 * @param analyze the AnalyzeGOIInSample object that will be used to get the number of genes of interest
+	 * @param prefix the prefix of the log files
+	 * @param writeInputLogs false if the genome index and gff logs for this prefix were already written
+	 */
+	public GetDistOfGOI(GenomeSample genomeSample, BedtoolsWrapper bedtools, AnalyzeGOIInSample analyze, String prefix, boolean writeInputLogs) {
 		gs = genomeSample;
 		bw = bedtools;
 		ags = analyze;
 		logPrefix = prefix;
 		
+		NUMBER_OF_SAMPLES = sampleCount;
 		samples = new int[NUMBER_OF_SAMPLES];
-		bedOut = new ArrayList<String>();
-		descsOut = new ArrayList<String>();
-		genomeSamples = new ArrayList<Sample>();
+		PIPELINE_DEPTH = pipelineDepth;
+		genomeSamples = new SampleBuffer(NUMBER_OF_SAMPLES);
 		
-		gs.writeIndexLog(prefix + "_genome_index.txt");
-		ags.writeGffLog(prefix + "_gff_treemap.txt");
+		if (writeInputLogs) {
+			gs.writeIndexLog(prefix + "_genome_index.txt");
+			ags.writeGffLog(prefix + "_gff_treemap.txt");
+		}
 	}
 	
 	/**
@@ -54,13 +93,75 @@ public class GetDistOfGOI {
 	 * @param id a unique id for the distribution. Will be used as a prefix for the output files
 	 */
 	public int[] getDist(int size, String geneOfInterest, String id) {
+		return getDist(size, geneOfInterest, id, new Random());
+	}
+	
+	/**
+	 * Public wrapper for the private method to get the distribution of the 
+	 * gene of interest, drawing every sample position from the given generator
+	 * @param size the size of the samples to take
+	 * @param geneOfInterest the name of the gene of interest
+	 * @param id a unique id for the distribution. Will be used as a prefix for the output files
+	 * @param random the random number generator used to place the samples
+	 */
+	public int[] getDist(int size, String geneOfInterest, String id, Random random) {
+		return getDist(size, geneOfInterest, id, random, NUMBER_OF_SAMPLES, false);
+	}
+	
+	/**
+	 * Public wrapper for the private method to get a distribution of the gene of interest
+	 * with fewer samples than NUMBER_OF_SAMPLES, drawing every sample position from the given generator
+	 * @param size the size of the samples to take
+	 * @param geneOfInterest the name of the gene of interest
+	 * @param id a unique id for the distribution. Will be used as a prefix for the output files
+	 * @param random the random number generator used to place the samples
+	 * @param count the number of samples to take, from 1 to NUMBER_OF_SAMPLES
+	 * @return a copy of the counts of the gene of interest in the samples
+	 */
+	public int[] getDist(int size, String geneOfInterest, String id, Random random, int count) {
+		if (count < 1 || count > NUMBER_OF_SAMPLES) {
+			throw new IllegalArgumentException("A distribution takes from 1 to " + NUMBER_OF_SAMPLES + " samples");
+		}
+		return getDist(size, geneOfInterest, id, random, count, true);
+	}
+	
+	/**
+	 * Runs the private method to get the distribution of the gene of interest
+	 * @param size the size of the samples to take
+	 * @param geneOfInterest the name of the gene of interest
+	 * @param id a unique id for the distribution. Will be used as a prefix for the output files
+	 * @param random the random number generator used to place the samples
+	 * @param count the number of samples to take
+	 * @param copy true to return a copy of the counts, false to return the samples array itself
+	 * @return the counts of the gene of interest in the samples
+	 */
+	private int[] getDist(int size, String geneOfInterest, String id, Random random, int count, boolean copy) {
 		//Initialize samples array to an error value of -1
 		for (int i = 0; i < samples.length; i++) {
 			samples[i] = -1;
 		}
 		sampleSize = size;
 		goi = geneOfInterest;
+		rand = random;
+		activeSamples = count;
+		
+		PipelineEvents.DistributionEvent event = new PipelineEvents.DistributionEvent();
+		event.begin();
 		getDist(id);
+		event.end();
+		if (event.shouldCommit()) {
+			event.variantId = id;
+			event.size = size;
+			event.goi = geneOfInterest;
+			event.samples = activeSamples;
+			for (int i = 0; i < activeSamples; i++) {
+				event.goiTotal += samples[i];
+			}
+			event.commit();
+		}
+		if (copy) {
+			return Arrays.copyOf(samples, activeSamples);
+		}
 		return samples;
 	}
 	
@@ -70,60 +171,47 @@ public class GetDistOfGOI {
 	 * @param sampleId a unique identifier for the distribution. Will be used as a prefix for output files
 	 */
 	private void getDist(String sampleId) {
+		// Only the samples of the current distribution are kept
+		genomeSamples.clear();
+		if (placement != null) {
+			placement.start(activeSamples, rand);
+			placementStarts = gs.getCumulativeStarts(sampleSize);
+		}
+		
+		// A distribution continued under the same id appends to its logs and keeps numbering its samples
+		boolean append = loggedSamples != null && loggedSamples.containsKey(sampleId);
+		int logBase = append ? loggedSamples.get(sampleId) : 0;
+		if (loggedSamples != null) {
+			loggedSamples.put(sampleId, logBase + activeSamples);
+		}
+		
 		// Open log files
 		try {
-			BufferedWriter bedResOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logPrefix + "_" + sampleId + "_bedtools_results.txt")));
-			BufferedWriter allIdsOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logPrefix + "_" + sampleId + "_allIds.txt")));
-			BufferedWriter uniIdsOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logPrefix + "_" + sampleId + "_uniqueIds.txt")));
-			BufferedWriter geneDesOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logPrefix + "_" + sampleId + "_geneDescriptions.txt")));
-
-			for (int i = 0; i < NUMBER_OF_SAMPLES; i++) {
-				if (i%100 == 0) {
-					System.err.println("Finished " + i + " samples");
-				}
-				Sample s = gs.getRandomSample(sampleSize);
-				genomeSamples.add(s);
-				
-				bedOut.clear();;
-				descsOut.clear();
-				bedOut = bw.findOverlappingGenes(s);
-				descsOut = ags.convertGeneIdsToDescriptions(bedOut);
+			BufferedWriter [] logs = openLogs(sampleId, append);
+			if (PIPELINE_DEPTH > 0) {
+				getDistPipelined(sampleId, logs, logBase);
+			} else {
+				// Samples are drawn in batches so several bedtools processes can run at once
+				int batchSize = BedtoolsWrapper.getMaxProcesses();
+				ArrayList<Sample> batch = new ArrayList<Sample>(batchSize);
 				
-				ArrayList<String> all = ags.getAllIds();
-				ArrayList<String> uni = ags.getUniqueIds();
-				ArrayList<String> descs = ags.getDescriptions();
-				
-				//Store count of GOI in samples array
-				samples[i] = ags.countGOI(goi, descsOut);
-				
-				//Write to logs
-				bedResOut.write("Sample " + (i + 1) + "\n");
-				allIdsOut.write("Sample " + (i + 1) + "\n");
-				uniIdsOut.write("Sample " + (i + 1) + "\n");
-				geneDesOut.write("Sample " + (i + 1) + "\n");
-				for (int j = 0; j < bedOut.size(); j++) {
-					bedResOut.write(bedOut.get(j) + "\n");
-				}
-				for (int j = 0; j < all.size(); j++) {
-					allIdsOut.write(all.get(j) + "\n");
-				}
-				for (int j = 0; j < uni.size(); j++) {
-					uniIdsOut.write(uni.get(j) + "\n");
-				}
-				for (int j = 0; j < descs.size(); j++) {
-					geneDesOut.write(descs.get(j) + "\n");
+				for (int i = 0; i < activeSamples; i++) {
+					if (i % batchSize == 0) {
+						batch.clear();
+						for (int j = i; j < Math.min(i + batchSize, activeSamples); j++) {
+							batch.add(drawSample(j));
+						}
+						bw.findOverlappingGenes(batch, sampleId, i, overlaps);
+					}
+					ArrayList<String> lines = overlaps.get(i % batchSize);
+					resolveSample(sampleId, i, batch.get(i % batchSize), lines, query);
+					writeSampleLogs(logs, sampleId, i, logBase, lines, query);
 				}
-				
-				bedResOut.write("\n");
-				allIdsOut.write("\n");
-				uniIdsOut.write("\n");
-				geneDesOut.write("\n");
 			}
 			
-			bedResOut.close();
-			allIdsOut.close();
-			uniIdsOut.close();
-			geneDesOut.close();
+			for (int i = 0; i < logs.length; i++) {
+				logs[i].close();
+			}
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
@@ -132,16 +220,360 @@ public class GetDistOfGOI {
 		
 	}
 	
+	/**
+	 * Defines a batch of samples moving through the stages of the pipeline, with the lists
+	 * each stage fills. Batches are reused once their logs are written
+	 * @author Stephen Pollo
+	 */
+	private class Batch {
+		int first; // index of the first sample of the batch in the distribution
+		ArrayList<Sample> windows = new ArrayList<Sample>();
+		ArrayList<ArrayList<String>> overlaps = new ArrayList<ArrayList<String>>();
+		ArrayList<AnalyzeGOIInSample.QueryResult> results = new ArrayList<AnalyzeGOIInSample.QueryResult>();
+	} // end class Batch
+	
+	/**
+	 * Method to get the distribution with the draw, overlap, id resolution and log stages running at
+	 * the same time on their own virtual threads. Batches move between the stages through bounded
+	 * queues in the order they were drawn, and no more than PIPELINE_DEPTH batches exist, so the draw
+	 * stage waits when the later stages fall behind. The samples, recording and logs are the same as
+	 * without the pipeline. When a stage fails the others are stopped and its exception is thrown
+	 * @param sampleId a unique identifier for the distribution. Will be used as a prefix for output files
+	 * @param logs the open log files of the distribution
+	 * @param logBase the number of samples already in the logs
+	 * @throws IOException if the logs cannot be written
+	 * @throws CancellationException if the calling thread is interrupted, with its interrupt status set again
+	 */
+	private void getDistPipelined(String sampleId, BufferedWriter[] logs, int logBase) throws IOException {
+		int batchSize = BedtoolsWrapper.getMaxProcesses();
+		Batch end = new Batch(); // passed down the stages after the last batch
+		ArrayBlockingQueue<Batch> free = new ArrayBlockingQueue<Batch>(PIPELINE_DEPTH);
+		ArrayBlockingQueue<Batch> toOverlap = new ArrayBlockingQueue<Batch>(PIPELINE_DEPTH + 1);
+		ArrayBlockingQueue<Batch> toResolve = new ArrayBlockingQueue<Batch>(PIPELINE_DEPTH + 1);
+		ArrayBlockingQueue<Batch> toLog = new ArrayBlockingQueue<Batch>(PIPELINE_DEPTH + 1);
+		for (int i = 0; i < PIPELINE_DEPTH; i++) {
+			free.add(new Batch());
+		}
+		// Set before the stages are cancelled, so a stage leaves even if a call it made swallowed the interrupt
+		AtomicBoolean stopped = new AtomicBoolean(false);
+		
+		ArrayList<Callable<Void>> stages = new ArrayList<Callable<Void>>();
+		// Draw: the only stage that uses the random generator and the placement, in sample order
+		stages.add(() -> {
+			for (int first = 0; first < activeSamples; first += batchSize) {
+				Batch b = take(free, stopped);
+				b.first = first;
+				b.windows.clear();
+				for (int j = first; j < Math.min(first + batchSize, activeSamples); j++) {
+					b.windows.add(drawSample(j));
+				}
+				put(toOverlap, b, stopped);
+			}
+			put(toOverlap, end, stopped);
+			return null;
+		});
+		// Overlap: the bedtools processes of one batch while the other stages work on the others
+		stages.add(() -> {
+			for (Batch b = take(toOverlap, stopped); b != end; b = take(toOverlap, stopped)) {
+				bw.findOverlappingGenes(b.windows, sampleId, b.first, b.overlaps);
+				put(toResolve, b, stopped);
+			}
+			put(toResolve, end, stopped);
+			return null;
+		});
+		// Resolve: gene ids, descriptions and counts
+		stages.add(() -> {
+			for (Batch b = take(toResolve, stopped); b != end; b = take(toResolve, stopped)) {
+				for (int j = 0; j < b.windows.size(); j++) {
+					if (b.results.size() == j) {
+						b.results.add(new AnalyzeGOIInSample.QueryResult());
+					}
+					resolveSample(sampleId, b.first + j, b.windows.get(j), b.overlaps.get(j), b.results.get(j));
+				}
+				put(toLog, b, stopped);
+			}
+			put(toLog, end, stopped);
+			return null;
+		});
+		// Log: the samples of each batch in order, then the batch can be drawn into again
+		stages.add(() -> {
+			for (Batch b = take(toLog, stopped); b != end; b = take(toLog, stopped)) {
+				for (int j = 0; j < b.windows.size(); j++) {
+					writeSampleLogs(logs, sampleId, b.first + j, logBase, b.overlaps.get(j), b.results.get(j));
+				}
+				put(free, b, stopped);
+			}
+			return null;
+		});
+		
+		// A stage that fails stops the others, which would otherwise wait on their queues forever
+		try (ExecutorService exec = Executors.newVirtualThreadPerTaskExecutor()) {
+			ExecutorCompletionService<Void> done = new ExecutorCompletionService<Void>(exec);
+			ArrayList<Future<Void>> running = new ArrayList<Future<Void>>();
+			for (int i = 0; i < stages.size(); i++) {
+				running.add(done.submit(stages.get(i)));
+			}
+			try {
+				for (int i = 0; i < stages.size(); i++) {
+					done.take().get();
+				}
+			} catch (ExecutionException e) {
+				stopped.set(true);
+				for (int i = 0; i < running.size(); i++) {
+					running.get(i).cancel(true);
+				}
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException) {
+					throw (IOException)cause;
+				} else if (cause instanceof RuntimeException) {
+					throw (RuntimeException)cause;
+				} else if (cause instanceof Error) {
+					throw (Error)cause;
+				}
+				throw new IllegalStateException("A stage of the sampling pipeline failed", cause);
+			} catch (InterruptedException e) {
+				stopped.set(true);
+				for (int i = 0; i < running.size(); i++) {
+					running.get(i).cancel(true);
+				}
+				Thread.currentThread().interrupt();
+				throw new CancellationException("Interrupted while sampling " + sampleId);
+			}
+		}
+	}
+	
+	/**
+	 * Takes the next batch from a queue of the pipeline, waiting until one arrives or the pipeline is stopped
+	 * @param queue the queue to take the batch from
+	 * @param stopped set when the pipeline is stopped
+	 * @return the batch
+	 * @throws InterruptedException if the pipeline is stopped or the stage is interrupted
+	 */
+	private static Batch take(ArrayBlockingQueue<Batch> queue, AtomicBoolean stopped) throws InterruptedException {
+		Batch b = null;
+		while (b == null) {
+			if (stopped.get()) {
+				throw new InterruptedException("The sampling pipeline was stopped");
+			}
+			b = queue.poll(STAGE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+		}
+		return b;
+	}
+	
+	/**
+	 * Puts a batch on a queue of the pipeline, waiting until there is room or the pipeline is stopped
+	 * @param queue the queue to put the batch on
+	 * @param b the batch
+	 * @param stopped set when the pipeline is stopped
+	 * @throws InterruptedException if the pipeline is stopped or the stage is interrupted
+	 */
+	private static void put(ArrayBlockingQueue<Batch> queue, Batch b, AtomicBoolean stopped) throws InterruptedException {
+		while (!queue.offer(b, STAGE_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+			if (stopped.get()) {
+				throw new InterruptedException("The sampling pipeline was stopped");
+			}
+		}
+	}
+	
+	/**
+	 * Draws the window of one sample and keeps it with the samples of the distribution
+	 * @param i the index of the sample in the distribution
+	 * @return the window of the sample
+	 */
+	private Sample drawSample(int i) {
+		Sample s;
+		if (placement != null) {
+			s = gs.getSampleAt(sampleSize, placement.getPosition(i), placementStarts);
+		} else {
+			s = gs.getRandomSample(sampleSize, rand);
+		}
+		genomeSamples.add(s.getChrOrdinal(), s.getStartCoord(), s.getEndCoord());
+		return s;
+	}
+	
+	/**
+	 * Resolves the gene ids of one sample, stores its count of the gene of interest
+	 * and adds its window to the recording if there is one. The descriptions are only looked up for the logs
+	 * @param sampleId the id of the distribution
+	 * @param i the index of the sample in the distribution
+	 * @param window the window of the sample
+	 * @param bedtoolsLines the bedtools output of the window
+	 * @param result the lists to fill with the ids of the sample
+	 */
+	private void resolveSample(String sampleId, int i, Sample window, ArrayList<String> bedtoolsLines, AnalyzeGOIInSample.QueryResult result) {
+		if (i%100 == 0) {
+			System.err.println("Finished " + i + " samples");
+		}
+		PipelineEvents.IdResolutionEvent idEvent = new PipelineEvents.IdResolutionEvent();
+		idEvent.begin();
+		ArrayList<String> uniqueIds = ags.resolveGeneIds(bedtoolsLines, result);
+		
+		//Store count of GOI in samples array
+		samples[i] = ags.countGOIIds(goi, uniqueIds);
+		if (recording != null) {
+			recording.add(window.getChrOrdinal(), window.getStartCoord(), result.getUniqueIds());
+		}
+		idEvent.end();
+		if (idEvent.shouldCommit()) {
+			idEvent.variantId = sampleId;
+			idEvent.sampleIndex = i;
+			idEvent.records = bedtoolsLines.size();
+			idEvent.uniqueIds = result.getUniqueIds().size();
+			idEvent.goiCount = samples[i];
+			idEvent.commit();
+		}
+	}
+	
+	/**
+	 * Opens the four log files of a distribution
+	 * @param sampleId the id of the distribution
+	 * @param append true to add to the logs of an earlier call with the same id
+	 * @return the bedtools results, all ids, unique ids and gene descriptions logs
+	 * @throws FileNotFoundException if a log file cannot be created
+	 */
+	private BufferedWriter[] openLogs(String sampleId, boolean append) throws FileNotFoundException {
+		String [] names = {"_bedtools_results.txt", "_allIds.txt", "_uniqueIds.txt", "_geneDescriptions.txt"};
+		BufferedWriter [] logs = new BufferedWriter[names.length];
+		for (int i = 0; i < names.length; i++) {
+			logs[i] = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logPrefix + "_" + sampleId + names[i], append)));
+		}
+		return logs;
+	}
+	
+	/**
+	 * Writes one sample to the logs of its distribution
+	 * @param logs the bedtools results, all ids, unique ids and gene descriptions logs
+	 * @param sampleId the id of the distribution
+	 * @param i the index of the sample in the distribution
+	 * @param logBase the number of samples already in the logs
+	 * @param bedtoolsLines the bedtools output of the sample
+	 * @param result the ids of the sample, the descriptions are looked up here
+	 * @throws IOException if the logs cannot be written
+	 */
+	private void writeSampleLogs(BufferedWriter[] logs, String sampleId, int i, int logBase, ArrayList<String> bedtoolsLines,
+			AnalyzeGOIInSample.QueryResult result) throws IOException {
+		ArrayList<String> all = result.getAllIds();
+		ArrayList<String> uni = result.getUniqueIds();
+		ArrayList<String> descs = ags.resolveDescriptions(result);
+		
+		//Write to logs
+		PipelineEvents.LogWriteEvent logEvent = new PipelineEvents.LogWriteEvent();
+		logEvent.begin();
+		for (int j = 0; j < logs.length; j++) {
+			logs[j].write("Sample " + (logBase + i + 1) + "\n");
+		}
+		for (int j = 0; j < bedtoolsLines.size(); j++) {
+			logs[0].write(bedtoolsLines.get(j) + "\n");
+		}
+		for (int j = 0; j < all.size(); j++) {
+			logs[1].write(all.get(j) + "\n");
+		}
+		for (int j = 0; j < uni.size(); j++) {
+			logs[2].write(uni.get(j) + "\n");
+		}
+		for (int j = 0; j < descs.size(); j++) {
+			logs[3].write(descs.get(j) + "\n");
+		}
+		for (int j = 0; j < logs.length; j++) {
+			logs[j].write("\n");
+		}
+		logEvent.end();
+		if (logEvent.shouldCommit()) {
+			logEvent.file = logPrefix + "_" + sampleId;
+			logEvent.sampleIndex = i;
+			logEvent.lines = 8 + bedtoolsLines.size() + all.size() + uni.size() + descs.size();
+			logEvent.commit();
+		}
+	}
+	
+	/**
+	 * Sets how the windows of every following distribution are placed
+	 * @param windowPlacement the stratified or sequence placement to use, or null for independent uniform draws
+	 */
+	public void setPlacement(WindowPlacement windowPlacement) {
+		placement = windowPlacement;
+	}
+	
+	/**
+	 * Sets the recording that the windows and unique genes of the next distribution are added to
+	 * @param windowRecording the recording to add to, or null to not record the windows
+	 */
+	public void setRecording(SampleReplayStore.Recording windowRecording) {
+		recording = windowRecording;
+	}
+	
+	/**
+	 * Sets whether a distribution with the id of an earlier one continues its logs.
+	 * Without it the logs of a distribution are written again from the start on every call
+	 * @param continueSameId true to append to the logs when an id repeats
+	 */
+	public void setContinueLogs(boolean continueSameId) {
+		loggedSamples = continueSameId ? new HashMap<String, Integer>() : null;
+	}
+	
+	/**
+	 * Getter for the window placement
+	 * @return the placement used for the distributions, or null if the windows are drawn independently
+	 */
+	public WindowPlacement getPlacement() {
+		return placement;
+	}
+	
+	/**
+	 * Sets the number of samples of the distributions of every GetDistOfGOI created after this call
+	 * @param samplesPerDistribution the number of samples, at least 1
+	 */
+	public static void setSampleCount(int samplesPerDistribution) {
+		if (samplesPerDistribution < 1) {
+			throw new IllegalArgumentException("At least one sample must be taken");
+		}
+		sampleCount = samplesPerDistribution;
+	}
+	
+	/**
+	 * Getter for the number of samples of the distributions of every GetDistOfGOI created from now on
+	 * @return the number of samples
+	 */
+	public static int getSampleCount() {
+		return sampleCount;
+	}
+	
+	/**
+	 * Sets whether the distributions of every GetDistOfGOI created after this call run their
+	 * draw, overlap, id resolution and log stages at the same time
+	 * @param batches the number of batches of samples in the pipeline at once, at least 2, or 0 to not use the pipeline
+	 */
+	public static void setPipelineDepth(int batches) {
+		if (batches != 0 && batches < 2) {
+			throw new IllegalArgumentException("A pipeline needs room for at least 2 batches");
+		}
+		pipelineDepth = batches;
+	}
+	
 	/**
 	 * Getter method for the list of samples in the distribution
+	 * NOTE this builds a new Sample for every draw, use getSampleBuffer() to read them without copying
 	 * @return an ArrayList of Sample
 	 */
 	public ArrayList<Sample> getGenomeSamples() {
+		ArrayList<Sample> list = new ArrayList<Sample>(genomeSamples.size());
+		for (int i = 0; i < genomeSamples.size(); i++) {
+			list.add(new Sample(gs.getContigs(), genomeSamples.getChr(i), genomeSamples.getStartCoord(i), genomeSamples.getEndCoord(i)));
+		}
+		return list;
+	}
+	
+	/**
+	 * Getter method for the samples of the current distribution
+	 * NOTE the buffer gets overwritten every time the getDist() method is called
+	 * @return the SampleBuffer holding the samples
+	 */
+	public SampleBuffer getSampleBuffer() {
 		return genomeSamples;
 	}
 	
 	/**
-	 * Debugging method to write all samples to a file
+	 * Debugging method to write the samples of the current distribution to a file
 	 * @param logName the name of the log file to write
 	 */
 	public void writeSampleList(String logName) {
@@ -149,7 +581,7 @@ public class GetDistOfGOI {
 		try {
 			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logName)));
 			for (int i = 0; i < genomeSamples.size(); i++) {
-				out.write(genomeSamples.get(i).toString() + "\n");
+				out.write(gs.getChrName(genomeSamples.getChr(i)) + "\t" + genomeSamples.getStartCoord(i) + "\t" + genomeSamples.getEndCoord(i) + "\n");
 			}
 			out.close();
 		} catch (FileNotFoundException e) {
@@ -0,0 +1,253 @@
+/**
+ * Class to estimate small tail probabilities of the count of a gene of interest with
+ * importance sampling. Windows are drawn from a mixture that places most of them over
+ * the spans of genes of interest, and each draw is reweighted by the ratio of its
+ * probability under uniform placement to its probability under the mixture, so the
+ * estimates stay unbiased while far fewer draws land in regions without the gene
+ *
+ * The mixture draws a window uniformly over every valid start with probability
+ * DEFENSIVE_FRACTION, and otherwise picks a span of a gene of interest uniformly and
+ * then a start uniformly among the valid starts whose window overlaps that span.
+ * Keeping the uniform part bounds every weight by 1 / DEFENSIVE_FRACTION
+ * @author Stephen Pollo
+ */
+
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+public class ImportanceSampler {
+	
+	public static final double DEFENSIVE_FRACTION = 0.1;
+	
+	private GenomeSample gs;
+	private ExonerateSpans spans;
+	private int [] genomeChrOf; // genome ordinal of the chromosome of each span chromosome, -1 if the genome does not have it
+	private int [] spanChrOf; // span ordinal of each genome chromosome, -1 if no span is on it
+	private boolean [] goiGene;
+	private int [] goiSpans; // indices of the spans of genes of interest
+	
+	// Filled by the last run
+	private int [] counts;
+	private double [] weights;
+	
+	/**
+	 * Constructor
+	 * @param genomeSample the loaded genome to place the windows on
+	 * @param exonerateSpans the collapsed exonerate records to count overlaps in
+	 * @param analyze the loaded genome gff file, to tell which genes are genes of interest
+	 * @param goi the gene of interest
+	 */
+	public ImportanceSampler(GenomeSample genomeSample, ExonerateSpans exonerateSpans, AnalyzeGOIInSample analyze, String goi) {
+		gs = genomeSample;
+		spans = exonerateSpans;
+		
+		spanChrOf = new int[gs.getChrCount()];
+		for (int i = 0; i < spanChrOf.length; i++) {
+			spanChrOf[i] = spans.getChrOrdinal(gs.getChrName(i));
+		}
+		genomeChrOf = new int[spans.getChrCount()];
+		Arrays.fill(genomeChrOf, -1);
+		for (int i = 0; i < spanChrOf.length; i++) {
+			if (spanChrOf[i] >= 0) {
+				genomeChrOf[spanChrOf[i]] = i;
+			}
+		}
+		
+		goiGene = new boolean[spans.getGeneCount()];
+		for (int i = 0; i < goiGene.length; i++) {
+			goiGene[i] = analyze.isGOI(spans.getGeneId(i), goi);
+		}
+		
+		ArrayList<Integer> found = new ArrayList<Integer>();
+		for (int c = 0; c < genomeChrOf.length; c++) {
+			if (genomeChrOf[c] < 0) {
+				continue;
+			}
+			for (int j = spans.getFirstSpan(c); j < spans.getEndSpan(c); j++) {
+				if (goiGene[spans.getSpanGene(j)]) {
+					found.add(j);
+				}
+			}
+		}
+		goiSpans = new int[found.size()];
+		for (int i = 0; i < goiSpans.length; i++) {
+			goiSpans[i] = found.get(i);
+		}
+	}
+	
+	/**
+	 * Draws weighted windows of one size
+	 * @param size the size of the structural variant
+	 * @param samples the number of windows to draw
+	 * @param rand the random number generator to draw the windows from
+	 * @throws IllegalArgumentException if no window of the size fits on the genome
+	 */
+	public void run(int size, int samples, Random rand) {
+		// Valid starts of each chromosome are 1 to length - size, the same starts GenomeSample.getRandomSample() uses
+		int chrCount = gs.getChrCount();
+		long [] cumulativeStarts = new long[chrCount + 1];
+		for (int i = 0; i < chrCount; i++) {
+			cumulativeStarts[i + 1] = cumulativeStarts[i] + Math.max(0, gs.getChrLength(i) - size);
+		}
+		long validStarts = cumulativeStarts[chrCount];
+		if (validStarts == 0) {
+			throw new IllegalArgumentException("The size " + size + " is too big to sample from this genome");
+		}
+		
+		// Starts whose window overlaps each span of a gene of interest, indexed by span
+		int [] proposalLo = new int[spans.getSpanCount()];
+		int [] proposalSize = new int[spans.getSpanCount()];
+		ArrayList<Integer> proposal = new ArrayList<Integer>();
+		for (int i = 0; i < goiSpans.length; i++) {
+			int j = goiSpans[i];
+			int len = gs.getChrLength(genomeChrOf[spans.getSpanChr(j)]);
+			int lo = Math.max(1, spans.getSpanStart(j) - size);
+			int hi = Math.min(spans.getSpanEnd(j) - 1, len - size);
+			if (hi >= lo) {
+				proposalLo[j] = lo;
+				proposalSize[j] = hi - lo + 1;
+				proposal.add(j);
+			}
+		}
+		double uniformFraction = proposal.isEmpty() ? 1.0 : DEFENSIVE_FRACTION;
+		
+		counts = new int[samples];
+		weights = new double[samples];
+		int [] geneStamp = new int[goiGene.length];
+		
+		for (int i = 0; i < samples; i++) {
+			int chr;
+			int start;
+			if (rand.nextDouble() < uniformFraction) {
+				long r = (long)(rand.nextDouble() * validStarts);
+				chr = Arrays.binarySearch(cumulativeStarts, r);
+				chr = chr >= 0 ? chr : -chr - 2;
+				// Skip chromosomes the size does not fit on
+				while (cumulativeStarts[chr + 1] <= r) {
+					chr++;
+				}
+				start = (int)(r - cumulativeStarts[chr]) + 1;
+			} else {
+				int j = proposal.get(rand.nextInt(proposal.size()));
+				chr = genomeChrOf[spans.getSpanChr(j)];
+				start = proposalLo[j] + rand.nextInt(proposalSize[j]);
+			}
+			
+			// Walk the spans overlapping [start, start + size), counting genes of interest and the mixture density
+			int count = 0;
+			double overlapDensity = 0;
+			int sc = spanChrOf[chr];
+			if (sc >= 0) {
+				int next = spans.findFirstSpanAfter(sc, start);
+				for (int j = next - 1; j >= spans.getFirstSpan(sc) && spans.getSpanMaxEnd(j) > start; j--) {
+					if (spans.getSpanEnd(j) > start) {
+						count += addGene(spans.getSpanGene(j), geneStamp, i + 1);
+						overlapDensity += proposalSize[j] > 0 ? 1.0 / proposalSize[j] : 0;
+					}
+				}
+				for (int j = next; j < spans.getEndSpan(sc) && spans.getSpanStart(j) - 1 < start + size; j++) {
+					count += addGene(spans.getSpanGene(j), geneStamp, i + 1);
+					overlapDensity += proposalSize[j] > 0 ? 1.0 / proposalSize[j] : 0;
+				}
+			}
+			
+			double proposalDensity = uniformFraction / validStarts;
+			if (!proposal.isEmpty()) {
+				proposalDensity += (1 - uniformFraction) * overlapDensity / proposal.size();
+			}
+			counts[i] = count;
+			weights[i] = (1.0 / validStarts) / proposalDensity;
+		}
+	}
+	
+	/**
+	 * Marks a gene as found in the current window
+	 * @param gene the ordinal of the gene
+	 * @param geneStamp the window each gene was last found in
+	 * @param stamp the current window
+	 * @return 1 if the gene is a gene of interest not found in the window before, otherwise 0
+	 */
+	private int addGene(int gene, int[] geneStamp, int stamp) {
+		if (geneStamp[gene] == stamp) {
+			return 0;
+		}
+		geneStamp[gene] = stamp;
+		return goiGene[gene] ? 1 : 0;
+	}
+	
+	/**
+	 * Estimates the probability under uniform placement of a count at least as large as a threshold
+	 * @param threshold the count of the gene of interest
+	 * @return an array of size 2: the unbiased estimate of the tail probability and its standard error
+	 */
+	public double[] getTailProbability(int threshold) {
+		double sum = 0;
+		double sumSquares = 0;
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] >= threshold) {
+				sum += weights[i];
+				sumSquares += weights[i] * weights[i];
+			}
+		}
+		int n = counts.length;
+		double estimate = sum / n;
+		double variance = n > 1 ? (sumSquares / n - estimate * estimate) * n / (n - 1) : 0;
+		double [] vals = {estimate, Math.sqrt(Math.max(0, variance) / n)};
+		return vals;
+	}
+	
+	/**
+	 * Getter for the largest count drawn by the last run
+	 * @return the largest count of the gene of interest in a window
+	 */
+	public int getMaxCount() {
+		int max = 0;
+		for (int i = 0; i < counts.length; i++) {
+			max = Math.max(max, counts[i]);
+		}
+		return max;
+	}
+	
+	/**
+	 * Runs every variant and writes the tail probability of every count from 1 to the largest drawn.
+	 * Each line is the variant id, size, threshold, tail probability and standard error, tab delimited
+	 * @param variants the structural variants
+	 * @param samples the number of windows to draw for each variant
+	 * @param seed the seed of the run, or null to sample without one
+	 * @param reportFile the name of the file to write
+	 */
+	public void writeReport(ArrayList<SVSize> variants, int samples, Long seed, String reportFile) {
+		try {
+			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(reportFile)));
+			out.write("#id\tsize\tthreshold\tp_value\tstd_error\n");
+			for (int i = 0; i < variants.size(); i++) {
+				SVSize v = variants.get(i);
+				Random rand = seed == null ? new Random() : new Random(VariantAnalyzer.variantSeed(seed, v.getSize()));
+				try {
+					run(v.getSize(), samples, rand);
+				} catch (IllegalArgumentException e) {
+					System.err.println(e);
+					System.err.println("Skipping variant " + v.getID() + ", sorry 'bout it");
+					continue;
+				}
+				for (int t = 1; t <= getMaxCount(); t++) {
+					double [] p = getTailProbability(t);
+					out.write(v.getID() + "\t" + v.getSize() + "\t" + t + "\t" + p[0] + "\t" + p[1] + "\n");
+				}
+				out.flush();
+			}
+			out.close();
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+} // end class ImportanceSampler
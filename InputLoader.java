@@ -0,0 +1,108 @@
+/**
+ * Class to load the input files of a run at the same time. Each input is loaded on its own
+ * virtual thread, so startup takes as long as the slowest input rather than the sum of all
+ * of them. If any input fails to load the others are cancelled and the error is reported
+ * once, leaving the caller to decide how to stop. Cancelling also sets the flag the chunked
+ * parses of the inputs check, so chunks on the fork-join pool stop too
+ * @author Stephen Pollo
+ */
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class InputLoader {
+	
+	/**
+	 * Defines the loading of one input, which reports itself as finished when it is done
+	 * @author Stephen Pollo
+	 */
+	private class LoadTask<T> extends FutureTask<T> {
+		String name;
+		
+		/**
+		 * Constructor
+		 * @param inputName the name of the input, used in error messages
+		 * @param loader the code that loads the input
+		 */
+		public LoadTask(String inputName, Callable<T> loader) {
+			super(loader);
+			name = inputName;
+		}
+		
+		public void run() {
+			// The loader's chunked parses check the flag of this loader between chunks
+			ChunkedFileParser.setCancelFlag(cancelled);
+			try {
+				super.run();
+			} finally {
+				ChunkedFileParser.setCancelFlag(null);
+			}
+		}
+		
+		protected void done() {
+			finished.add(this);
+		}
+	}
+	
+	private ExecutorService exec = Executors.newVirtualThreadPerTaskExecutor();
+	private ArrayList<LoadTask<?>> tasks = new ArrayList<LoadTask<?>>();
+	private LinkedBlockingQueue<LoadTask<?>> finished = new LinkedBlockingQueue<LoadTask<?>>();
+	private AtomicBoolean cancelled = new AtomicBoolean();
+	
+	/**
+	 * Starts loading an input
+	 * @param name the name of the input, used in error messages
+	 * @param loader the code that loads the input
+	 * @return the input once awaitAll() has returned true, read with resultNow()
+	 */
+	public <T> Future<T> submit(String name, Callable<T> loader) {
+		LoadTask<T> task = new LoadTask<T>(name, loader);
+		tasks.add(task);
+		exec.execute(task);
+		return task;
+	}
+	
+	/**
+	 * Waits for every input to load, stopping at the first one that fails
+	 * @return true if every input loaded, false if one failed and the rest were cancelled
+	 */
+	public boolean awaitAll() {
+		try {
+			for (int i = 0; i < tasks.size(); i++) {
+				LoadTask<?> task = finished.take();
+				try {
+					task.get();
+				} catch (ExecutionException e) {
+					System.err.println("Could not load the " + task.name + ": " + e.getCause().getMessage());
+					cancelAll();
+					return false;
+				}
+			}
+		} catch (InterruptedException e) {
+			cancelAll();
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		exec.shutdown();
+		return true;
+	}
+	
+	/**
+	 * Cancels every input still loading
+	 */
+	private void cancelAll() {
+		cancelled.set(true);
+		for (int i = 0; i < tasks.size(); i++) {
+			tasks.get(i).cancel(true);
+		}
+		exec.shutdownNow();
+	}
+	
+} // end class InputLoader
@@ -0,0 +1,117 @@
+/**
+ * Class to count the genes of interest at the real coordinates of the structural variants, in one
+ * sorted sweep of every variant against the collapsed exonerate spans instead of a bedtools query each.
+ * A variant covers the bed interval [POS, END) of its vcf record, the same way a sample window of its
+ * size covers [start, start + size). A record without an END past its POS (an insertion) covers a window
+ * of the variant's size starting at POS, the window the null distribution of its size is made of
+ * @author Stephen Pollo
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+public class ObservedCounts {
+	
+	public static final int UNKNOWN = -1;
+	
+	private ExonerateSpans spans;
+	private boolean [] goiGene; // whether each gene of the spans is a gene of interest
+	
+	/**
+	 * Constructor
+	 * @param exonerateSpans the collapsed exonerate records to count overlaps in, numbered with the contigs of the genome
+	 * @param analyze the loaded genome gff file, to tell which genes are genes of interest
+	 * @param goi the gene of interest
+	 */
+	public ObservedCounts(ExonerateSpans exonerateSpans, AnalyzeGOIInSample analyze, String goi) {
+		spans = exonerateSpans;
+		goiGene = new boolean[spans.getGeneCount()];
+		for (int i = 0; i < goiGene.length; i++) {
+			goiGene[i] = analyze.isGOI(spans.getGeneId(i), goi);
+		}
+	}
+	
+	/**
+	 * Counts the unique genes of interest overlapping every variant
+	 * @param variants the structural variants, read with their positions
+	 * @return the count of each variant in the order of the list, or UNKNOWN if its contig is not in the genome
+	 */
+	public int[] count(ArrayList<SVSize> variants) {
+		int n = variants.size();
+		int [] counts = new int[n];
+		int [] chr = new int[n];
+		int [] start = new int[n];
+		int [] end = new int[n];
+		for (int i = 0; i < n; i++) {
+			SVSize v = variants.get(i);
+			chr[i] = v.getChr() == null ? UNKNOWN : spans.getChrOrdinal(v.getChr());
+			start[i] = v.getPos();
+			end[i] = v.getEnd() > v.getPos() ? v.getEnd() : v.getPos() + v.getSize();
+		}
+		
+		// Variants in order of chromosome and start, so the first span that can still overlap only moves forward
+		Integer [] order = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, Comparator.<Integer>comparingInt(i -> chr[i]).thenComparingInt(i -> start[i]));
+		
+		int [] geneStamp = new int[goiGene.length];
+		int stamp = 0;
+		int currentChr = UNKNOWN;
+		int low = 0;
+		for (int k = 0; k < n; k++) {
+			int v = order[k];
+			if (chr[v] == UNKNOWN) {
+				counts[v] = UNKNOWN;
+				continue;
+			}
+			if (chr[v] != currentChr) {
+				currentChr = chr[v];
+				low = spans.getFirstSpan(currentChr);
+			}
+			// Every span before low ends at or before this start, and the starts only grow
+			int last = spans.getEndSpan(currentChr);
+			while (low < last && spans.getSpanMaxEnd(low) <= start[v]) {
+				low++;
+			}
+			
+			stamp++;
+			int count = 0;
+			// A span [s, e] in gff coordinates overlaps the bed interval [start, end) when s - 1 < end and e > start
+			for (int j = low; j < last && spans.getSpanStart(j) - 1 < end[v]; j++) {
+				int gene = spans.getSpanGene(j);
+				if (spans.getSpanEnd(j) > start[v] && goiGene[gene] && geneStamp[gene] != stamp) {
+					geneStamp[gene] = stamp;
+					count++;
+				}
+			}
+			counts[v] = count;
+		}
+		return counts;
+	}
+	
+	/**
+	 * Finds the empirical p-value of an observed count: the share of the null distribution at least
+	 * as large as the observed count, with the observation itself counted, (1 + #{dist >= observed}) / (1 + N)
+	 * @param sortedDist the null distribution of the count, sorted
+	 * @param observed the observed count
+	 * @return the one-sided p-value
+	 */
+	public static double empiricalPValue(int[] sortedDist, int observed) {
+		// First index with a count >= observed
+		int lo = 0;
+		int hi = sortedDist.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (sortedDist[mid] < observed) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return (1.0 + sortedDist.length - lo) / (1.0 + sortedDist.length);
+	}
+	
+} // end class ObservedCounts
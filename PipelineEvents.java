@@ -0,0 +1,123 @@
+/**
+ * Java Flight Recorder events of the sampling pipeline, so recordings show which variant,
+ * sample and query the time went to. Record them by starting the program with
+ * -XX:StartFlightRecording; they all belong to the "SV Analysis" category.
+ * Stack traces are off, and the fields are only filled in when the event is going
+ * to be committed, so the events are cheap enough to leave on
+ * @author Stephen Pollo
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+public class PipelineEvents {
+	
+	/**
+	 * Event around finding the distribution of the gene of interest for one variant
+	 * @author Stephen Pollo
+	 */
+	@Name("svanalysis.Distribution")
+	@Label("Distribution")
+	@Description("Sampling the distribution of the gene of interest for one structural variant")
+	@Category("SV Analysis")
+	@StackTrace(false)
+	public static class DistributionEvent extends Event {
+		@Label("Variant Id")
+		String variantId;
+		@Label("Size")
+		int size;
+		@Label("Gene Of Interest")
+		String goi;
+		@Label("Samples")
+		int samples;
+		@Label("Total Genes Of Interest")
+		long goiTotal;
+	}
+	
+	/**
+	 * Event around one overlap query of a sampled region against the exonerate records
+	 * @author Stephen Pollo
+	 */
+	@Name("svanalysis.OverlapQuery")
+	@Label("Overlap Query")
+	@Description("Finding the exonerate records that overlap one sampled region")
+	@Category("SV Analysis")
+	@StackTrace(false)
+	public static class OverlapQueryEvent extends Event {
+		@Label("Variant Id")
+		String variantId;
+		@Label("Sample Index")
+		int sampleIndex;
+		@Label("Chromosome")
+		String chr;
+		@Label("Start")
+		int start;
+		@Label("End")
+		int end;
+		@Label("Records")
+		int records;
+	}
+	
+	/**
+	 * Event around resolving the gene ids of one sample to descriptions and counting the genes of interest
+	 * @author Stephen Pollo
+	 */
+	@Name("svanalysis.IdResolution")
+	@Label("Id Resolution")
+	@Description("Resolving the gene ids of one sample and counting its genes of interest")
+	@Category("SV Analysis")
+	@StackTrace(false)
+	public static class IdResolutionEvent extends Event {
+		@Label("Variant Id")
+		String variantId;
+		@Label("Sample Index")
+		int sampleIndex;
+		@Label("Records")
+		int records;
+		@Label("Unique Ids")
+		int uniqueIds;
+		@Label("Genes Of Interest")
+		int goiCount;
+	}
+	
+	/**
+	 * Event around writing the lines of one sample to the buffered log files
+	 * @author Stephen Pollo
+	 */
+	@Name("svanalysis.LogWrite")
+	@Label("Log Write")
+	@Description("Writing the lines of one sample to the buffers of the log files")
+	@Category("SV Analysis")
+	@StackTrace(false)
+	public static class LogWriteEvent extends Event {
+		@Label("File")
+		String file;
+		@Label("Sample Index")
+		int sampleIndex;
+		@Label("Lines")
+		int lines;
+	}
+	
+	/**
+	 * Event around flushing buffered lines of the results files to disk
+	 * @author Stephen Pollo
+	 */
+	@Name("svanalysis.LogFlush")
+	@Label("Log Flush")
+	@Description("Flushing buffered lines of the results files to disk")
+	@Category("SV Analysis")
+	@StackTrace(false)
+	public static class LogFlushEvent extends Event {
+		@Label("File")
+		String file;
+		@Label("Sample Index")
+		int sampleIndex;
+		@Label("Lines")
+		int lines;
+	}
+	
+} // end class PipelineEvents
@@ -0,0 +1,191 @@
+/**
+ * Class to keep the distributions of the gene of interest on disk between runs, so
+ * structural variant sizes that were already sampled against the same inputs are not sampled again
+ *
+ * Each distribution is one line of results.tsv in the cache directory, keyed by the checksums of the
+ * genome, reference gff and exonerate files, the size, the gene of interest, the number of samples and the seed
+ * @author Stephen Pollo
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+
+public class ResultCache {
+	
+	private File cacheFile;
+	private String inputsKey; // checksums of the genome, reference gff and exonerate files
+	private ConcurrentHashMap<String, String> histograms = new ConcurrentHashMap<String, String>();
+	
+	/**
+	 * Constructor. Reads every distribution already in the cache directory
+	 * @param dir the cache directory. Created if it does not exist
+	 * @param genomeFile the genome in fasta format
+	 * @param genomeGff the gff file of the reference genome
+	 * @param exonerateFile the gff file created from mapping proteins to the genome with exonerate
+	 */
+	public ResultCache(String dir, String genomeFile, String genomeGff, String exonerateFile) {
+		new File(dir).mkdirs();
+		cacheFile = new File(dir, "results.tsv");
+		inputsKey = checksum(genomeFile) + "\t" + checksum(genomeGff) + "\t" + checksum(exonerateFile);
+		
+		if (!cacheFile.exists()) {
+			return;
+		}
+		
+		/*
+		 * Attempt to read the cache file.
+		 * Catch exceptions thrown if errors occur
+		 */
+		try {
+			Scanner in = new Scanner(cacheFile);
+			String line;
+			
+			while (in.hasNextLine()) {
+				line = in.nextLine();
+				// The cutoff and histogram are the last two fields, everything before is the key
+				int histStart = line.lastIndexOf('\t');
+				int cutoffStart = line.lastIndexOf('\t', histStart - 1);
+				if (cutoffStart < 0) {
+					// Partially written line, skip
+					continue;
+				}
+				histograms.put(line.substring(0, cutoffStart), line.substring(histStart + 1));
+			}
+			
+			in.close();
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Looks up a distribution in the cache
+	 * @param size the size of the samples
+	 * @param goi the gene of interest
+	 * @param samples the number of samples in the distribution
+	 * @param seed the seed of the run
+	 * @return the sorted counts of the gene of interest, or null if the distribution is not in the cache
+	 */
+	public int[] lookup(int size, String goi, int samples, long seed) {
+		String hist = histograms.get(key(size, goi, samples, seed));
+		if (hist == null) {
+			return null;
+		}
+		
+		// Expand the value:count pairs back into the sorted distribution
+		int [] dist = new int[samples];
+		int filled = 0;
+		String [] pairs = hist.split(",");
+		for (int i = 0; i < pairs.length; i++) {
+			int sep = pairs[i].indexOf(':');
+			int value = Integer.parseInt(pairs[i].substring(0, sep));
+			int count = Integer.parseInt(pairs[i].substring(sep + 1));
+			if (filled + count > samples) {
+				return null;
+			}
+			for (int j = 0; j < count; j++) {
+				dist[filled++] = value;
+			}
+		}
+		
+		if (filled != samples) {
+			// Histogram was cut short while being written, sample again
+			return null;
+		}
+		return dist;
+	}
+	
+	/**
+	 * Adds a distribution to the cache and appends it to the cache file
+	 * @param size the size of the samples
+	 * @param goi the gene of interest
+	 * @param seed the seed of the run
+	 * @param sortedDist the sorted counts of the gene of interest
+	 * @param cutoff the cutoff found for the distribution
+	 */
+	public void store(int size, String goi, long seed, int[] sortedDist, int cutoff) {
+		StringBuilder hist = new StringBuilder();
+		int i = 0;
+		while (i < sortedDist.length) {
+			int j = i;
+			while (j < sortedDist.length && sortedDist[j] == sortedDist[i]) {
+				j++;
+			}
+			if (hist.length() > 0) {
+				hist.append(',');
+			}
+			hist.append(sortedDist[i]).append(':').append(j - i);
+			i = j;
+		}
+		
+		String key = key(size, goi, sortedDist.length, seed);
+		if (histograms.putIfAbsent(key, hist.toString()) != null) {
+			return;
+		}
+		
+		// Lock the file so other processes sharing the cache do not interleave their lines
+		byte [] line = (key + "\t" + cutoff + "\t" + hist + "\n").getBytes(StandardCharsets.UTF_8);
+		synchronized (this) {
+			try {
+				FileOutputStream out = new FileOutputStream(cacheFile, true);
+				FileChannel channel = out.getChannel();
+				FileLock lock = channel.lock();
+				channel.write(ByteBuffer.wrap(line));
+				lock.release();
+				out.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Builds the key of a distribution
+	 * @param size the size of the samples
+	 * @param goi the gene of interest
+	 * @param samples the number of samples in the distribution
+	 * @param seed the seed of the run
+	 * @return the tab delimited key
+	 */
+	private String key(int size, String goi, int samples, long seed) {
+		return inputsKey + "\t" + size + "\t" + goi + "\t" + samples + "\t" + seed;
+	}
+	
+	/**
+	 * Computes a checksum of the contents of a file
+	 * @param path the path of the file
+	 * @return the length and CRC32C of the file in hexadecimal
+	 */
+	public static String checksum(String path) {
+		CRC32C crc = new CRC32C();
+		long length = 0;
+		
+		try {
+			InputStream in = new FileInputStream(path);
+			byte [] buffer = new byte[1 << 16];
+			int read = in.read(buffer);
+			while (read >= 0) {
+				crc.update(buffer, 0, read);
+				length += read;
+				read = in.read(buffer);
+			}
+			in.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		
+		return Long.toHexString(length) + "-" + Long.toHexString(crc.getValue());
+	}
+
+} // end class ResultCache
@@ -0,0 +1,205 @@
+/**
+ * Class to write the result of each structural variant as soon as it is finished,
+ * so partial results can be read while the rest of the variants are still being sampled
+ *
+ * Each line is the variant id, size, cutoff and number of samples, tab delimited,
+ * optionally preceded by the index of the variant in the vcf file. Lines written are flushed
+ * within FLUSH_MILLIS even when no further line arrives, so a slow variant does not hold them back
+ * @author Stephen Pollo
+ */
+
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+public class ResultsWriter {
+	
+	public static final long FLUSH_MILLIS = 30000;
+	
+	// One daemon thread flushes every open writer on time
+	private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "results-flusher");
+		t.setDaemon(true);
+		return t;
+	});
+	
+	private BufferedWriter out;
+	private String path;
+	private boolean ordered;
+	private boolean writeIndex;
+	private int flushEvery;
+	private TreeMap<Integer, String> pending = new TreeMap<Integer, String>(); // finished out of order, waiting for earlier variants
+	private int nextSeq = 0;
+	private int linesSinceFlush = 0;
+	private long lastFlush;
+	private Runnable lineWritten; // called after each result line leaves the writer, or null
+	private ScheduledFuture<?> timedFlush;
+	
+	/**
+	 * Constructor
+	 * @param resultsFile the file to write the results to
+	 * @param vcfOrder true to write the results in the order the variants were handed out, false to write them as they finish
+	 * @param withIndex true to start every line with the index of the variant in the vcf file
+	 * @param linesPerFlush the number of lines to write before flushing to disk. The file is also flushed every FLUSH_MILLIS
+	 * @throws FileNotFoundException if the results file cannot be created
+	 */
+	public ResultsWriter(String resultsFile, boolean vcfOrder, boolean withIndex, int linesPerFlush) throws FileNotFoundException {
+		out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(resultsFile)));
+		path = resultsFile;
+		ordered = vcfOrder;
+		writeIndex = withIndex;
+		flushEvery = Math.max(1, linesPerFlush);
+		lastFlush = System.currentTimeMillis();
+		if (flushEvery > 1) {
+			timedFlush = FLUSHER.scheduleWithFixedDelay(this::flushIfDue, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	/**
+	 * Sets a callback to run after each result line is written to the file, which in vcf order
+	 * can be long after the line was handed to write(). Runs while the writer is locked
+	 * @param onLineWritten the callback, or null for none
+	 */
+	public synchronized void setLineWritten(Runnable onLineWritten) {
+		lineWritten = onLineWritten;
+	}
+	
+	/**
+	 * Writes a header line before any results
+	 * @param header the line to write, without the line break
+	 */
+	public synchronized void writeHeader(String header) {
+		try {
+			out.write(header + "\n");
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Writes the result of one finished variant, or holds it back until every variant
+	 * handed out before it is written when writing in vcf order
+	 * @param seq the position of the variant in the order the variants were handed out, starting at 0
+	 * @param index the index of the variant in the vcf file
+	 * @param v the structural variant
+	 * @param cutoff the cutoff found for the variant
+	 * @param samples the number of samples the cutoff is based on, 0 if the variant could not be sampled
+	 */
+	public synchronized void write(int seq, int index, SVSize v, int cutoff, int samples) {
+		write(seq, index, v, cutoff, samples, null);
+	}
+	
+	/**
+	 * Writes the result of one finished variant with extra columns after the number of samples
+	 * @param seq the position of the variant in the order the variants were handed out, starting at 0
+	 * @param index the index of the variant in the vcf file
+	 * @param v the structural variant
+	 * @param cutoff the cutoff found for the variant
+	 * @param samples the number of samples the cutoff is based on, 0 if the variant could not be sampled
+	 * @param extra the tab delimited extra columns, or null if there are none
+	 */
+	public synchronized void write(int seq, int index, SVSize v, int cutoff, int samples, String extra) {
+		String line = v.getID() + "\t" + v.getSize() + "\t" + cutoff + "\t" + samples;
+		if (extra != null) {
+			line += "\t" + extra;
+		}
+		line += "\n";
+		if (writeIndex) {
+			line = index + "\t" + line;
+		}
+		
+		try {
+			if (!ordered) {
+				writeLine(line);
+			} else {
+				pending.put(seq, line);
+				while (!pending.isEmpty() && pending.firstKey() == nextSeq) {
+					writeLine(pending.pollFirstEntry().getValue());
+					nextSeq++;
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Writes a line and flushes the file if enough lines or time have passed
+	 * @param line the line to write
+	 * @throws IOException if the line cannot be written
+	 */
+	private void writeLine(String line) throws IOException {
+		out.write(line);
+		linesSinceFlush++;
+		if (lineWritten != null) {
+			lineWritten.run();
+		}
+		
+		if (linesSinceFlush >= flushEvery || System.currentTimeMillis() - lastFlush >= FLUSH_MILLIS) {
+			flush();
+		}
+	}
+	
+	/**
+	 * Flushes the lines written since the last flush if they have waited FLUSH_MILLIS,
+	 * run on a timer so they reach the disk even when no further line arrives
+	 */
+	private synchronized void flushIfDue() {
+		if (linesSinceFlush > 0 && System.currentTimeMillis() - lastFlush >= FLUSH_MILLIS) {
+			try {
+				flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Flushes the file to disk
+	 * @throws IOException if the file cannot be written
+	 */
+	private void flush() throws IOException {
+		PipelineEvents.LogFlushEvent event = new PipelineEvents.LogFlushEvent();
+		event.begin();
+		out.flush();
+		event.end();
+		if (event.shouldCommit()) {
+			event.file = path;
+			event.sampleIndex = -1;
+			event.lines = linesSinceFlush;
+			event.commit();
+		}
+		linesSinceFlush = 0;
+		lastFlush = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Writes any results still held back and closes the file
+	 */
+	public synchronized void close() {
+		if (timedFlush != null) {
+			timedFlush.cancel(false);
+		}
+		try {
+			// Anything left is behind a variant that never finished, keep the order of what did
+			while (!pending.isEmpty()) {
+				out.write(pending.pollFirstEntry().getValue());
+				if (lineWritten != null) {
+					lineWritten.run();
+				}
+			}
+			out.close();
+			linesSinceFlush = 0;
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+} // end class ResultsWriter
@@ -3,74 +3,728 @@
  * @author Stephen Pollo
  */
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.Future;
 
 public class SVAnalysis {
 	
+	// Options that are switched on by their name alone and take no value
+	public static final String [] FLAGS = {"collapse-spans", "aggregate", "stream", "shared-anchors", "importance", "count-matrix", "observed"};
+	
+	// Options that take a whole number, with the smallest and largest value each accepts
+	public static final String [] INT_OPTIONS = {"samples", "bedtools-processes", "pipeline", "threads", "in-flight", "flush-every",
+			"importance-samples", "min-samples", "replicates", "observed-total", "server", "submit"};
+	private static final int [][] INT_RANGES = {{1, Integer.MAX_VALUE}, {1, Integer.MAX_VALUE}, {2, Integer.MAX_VALUE},
+			{1, Integer.MAX_VALUE}, {1, Integer.MAX_VALUE}, {1, Integer.MAX_VALUE}, {1, Integer.MAX_VALUE}, {1, Integer.MAX_VALUE},
+			{2, Integer.MAX_VALUE}, {0, Integer.MAX_VALUE}, {1, 65535}, {1, 65535}};
+	
 	public static void main(String[] args) {
 		
-		String goi = "VSP";
-		
 		/*
 		 * Need: 1) genome file in fasta, 2) exonerate mapping file in gff, 3) gff file of reference genome, 4) vcf file from sniffles of variants,
 		 * 5) prefix of output files
+		 * Optional: --seed <long> to make the run reproducible, --shard <index>/<count> to only process one shard of the variants,
+		 * --goi <name> to change the gene of interest, --cache <dir> to reuse distributions of earlier seeded runs,
+		 * --results-order vcf|completion and --flush-every <lines> to control how <prefix>/results_<goi>.txt is streamed,
+		 * --bedtools-processes <n> to limit how many bedtools processes run at once,
+		 * --collapse-spans to search overlaps in the exonerate records collapsed to one set of spans per gene,
+		 * --aggregate [--observed-total <n>] to also test the total count of the gene of interest across all variants,
+		 * against the sum of the observed counts when run with --observed,
+		 * --stream [--threads <n>] [--in-flight <n>] to stream the variants through the experiment without reading the whole vcf file first,
+		 * --shared-anchors to sample every variant size from one shared pool of random window starts,
+		 * --importance [--importance-samples <n>] to estimate small tail probabilities by importance sampling,
+		 * --samples <n> to change the number of samples per variant,
+		 * --placement stratified|sequence [--replicates <n>] to place the windows evenly and estimate the variance of the cutoffs,
+		 * --record-windows <dir> to keep the windows and overlapping genes of every seeded distribution,
+		 * --replay <dir> to count other genes of interest (--goi <name>[,<name>...]) in those windows instead of sampling,
+		 * --budget <seconds> [--min-samples <n>] to spread the samples over the variants within a wall-clock budget,
+		 * --count-matrix [--matrix-width <bytes>] to also write the count of every sample of every variant to a binary matrix,
+		 * --pipeline <batches> to run the draw, bedtools, id resolution and log stages of each distribution at the same time,
+		 * --observed to also count the genes of interest at each variant's own coordinates and give the p-value of that count
+		 * Batch mode: --batch <manifest> with only the first three files, to run every vcf file of the manifest in one process
+		 * Server mode: --server <port> with only the first three files, then submit jobs with --submit <port> <vcf> <goi>[,<goi>...] <prefix>
 		 */
+		HashMap<String, String> options = new HashMap<String, String>();
+		ArrayList<String> positional = parseOptions(args, options);
+		
+		if (positional != null && !checkNumbers(options)) {
+			usage();
+			return;
+		}
+		if (options.containsKey("count-matrix") && !Arrays.asList("1", "2", "4").contains(options.getOrDefault("matrix-width", "2"))) {
+			System.err.println("The --matrix-width of a count is 1, 2 or 4 bytes");
+			return;
+		}
+		
+		if (options.containsKey("bedtools-processes")) {
+			BedtoolsWrapper.setMaxProcesses(Integer.parseInt(options.get("bedtools-processes")));
+		}
+		if (options.containsKey("samples")) {
+			GetDistOfGOI.setSampleCount(Integer.parseInt(options.get("samples")));
+		}
+		if (options.containsKey("pipeline")) {
+			GetDistOfGOI.setPipelineDepth(Integer.parseInt(options.get("pipeline")));
+		}
+		
+		if (positional != null && options.containsKey("submit")) {
+			if (positional.size() != 3) {
+				usage();
+				return;
+			}
+			AnalysisServer.submit(Integer.parseInt(options.get("submit")), positional.get(0), positional.get(1), positional.get(2), options.get("seed"));
+			return;
+		}
+		
+		if (positional != null && options.containsKey("server")) {
+			if (positional.size() != 3 || options.containsKey("observed") || options.containsKey("budget")
+					|| options.containsKey("placement") || options.containsKey("replicates")
+					|| options.containsKey("aggregate") || options.containsKey("observed-total")) {
+				usage();
+				return;
+			}
+			// The cache is shared by every job, only jobs sent with a seed use it
+			InputLoader loader = new InputLoader();
+			Future<GenomeSample> gs = loader.submit("genome", () -> new GenomeSample(new File(positional.get(0))));
+			Future<String> overlapFile = loader.submit("exonerate file", () -> overlapFileFor(positional.get(1), options));
+			Future<AnalyzeGOIInSample> ags = loader.submit("reference gff", () -> new AnalyzeGOIInSample(positional.get(2), positional.get(1)));
+			Future<ResultCache> cache = loader.submit("cache", () -> cacheFor(positional, options));
+			if (!loader.awaitAll()) {
+				System.exit(1);
+			}
+			reportUnknownContigs(gs.resultNow(), ags.resultNow(), true);
+			int threads = Runtime.getRuntime().availableProcessors();
+			if (options.containsKey("threads")) {
+				threads = Integer.parseInt(options.get("threads"));
+			}
+			AnalysisServer server = new AnalysisServer(gs.resultNow(), overlapFile.resultNow(), ags.resultNow(), cache.resultNow(), threads);
+			server.serve(Integer.parseInt(options.get("server")));
+			return;
+		}
+		
+		if (positional != null && options.containsKey("batch")) {
+			if (positional.size() != 3 || options.containsKey("shard") || options.containsKey("observed") || options.containsKey("budget")
+					|| options.containsKey("placement") || options.containsKey("replicates")
+					|| options.containsKey("aggregate") || options.containsKey("observed-total")) {
+				usage();
+				return;
+			}
+			if (options.containsKey("cache") && !options.containsKey("seed")) {
+				System.err.println("A run using a --cache must be given a --seed so its distributions can be reused");
+				return;
+			}
+			InputLoader loader = new InputLoader();
+			Future<GenomeSample> gs = loader.submit("genome", () -> new GenomeSample(new File(positional.get(0))));
+			Future<String> overlapFile = loader.submit("exonerate file", () -> overlapFileFor(positional.get(1), options));
+			Future<AnalyzeGOIInSample> ags = loader.submit("reference gff", () -> new AnalyzeGOIInSample(positional.get(2), positional.get(1)));
+			Future<ResultCache> cache = loader.submit("cache", () -> cacheFor(positional, options));
+			if (!loader.awaitAll()) {
+				System.exit(1);
+			}
+			reportUnknownContigs(gs.resultNow(), ags.resultNow(), true);
+			Long seed = null;
+			if (options.containsKey("seed")) {
+				seed = Long.parseLong(options.get("seed"));
+			}
+			int threads = Runtime.getRuntime().availableProcessors();
+			if (options.containsKey("threads")) {
+				threads = Integer.parseInt(options.get("threads"));
+			}
+			BatchRunner batch = new BatchRunner(gs.resultNow(), overlapFile.resultNow(), ags.resultNow(), cache.resultNow(), seed);
+			int flushEvery = 1;
+			if (options.containsKey("flush-every")) {
+				flushEvery = Integer.parseInt(options.get("flush-every"));
+			}
+			batch.setResultsOptions(!"completion".equals(options.get("results-order")), flushEvery);
+			if (options.containsKey("count-matrix")) {
+				batch.setCountMatrix(matrixWidth(options));
+			}
+			batch.run(options.get("batch"), threads);
+			return;
+		}
 		
 		// Check command line args
-		if (args.length != 5) {
+		if (positional == null || positional.size() != 5) {
 			usage();
 			return;
 		}
 		
+		String goi = "VSP";
+		if (options.containsKey("goi")) {
+			goi = options.get("goi");
+		}
+		
 		String prefix;
-		if (args[4].isEmpty()) {
+		if (positional.get(4).isEmpty()) {
 			prefix = "out";
 		} else {
-			prefix = args[4];
+			prefix = positional.get(4);
+		}
+		
+		if (options.containsKey("shard")) {
+			if (parseShard(options.get("shard")) == null) {
+				System.err.println("Could not parse shard " + options.get("shard") + ", expected <index>/<count>");
+				return;
+			}
+			if (!options.containsKey("seed")) {
+				System.err.println("A sharded run must be given a --seed so the shards can be merged");
+				return;
+			}
+			if (options.containsKey("aggregate")) {
+				System.err.println("The aggregate test needs the distributions of every variant and cannot be run on a shard");
+				return;
+			}
+		}
+		if (options.containsKey("cache") && !options.containsKey("seed")) {
+			System.err.println("A run using a --cache must be given a --seed so its distributions can be reused");
+			return;
+		}
+		
+		if (options.containsKey("stream") && (options.containsKey("shard") || options.containsKey("aggregate"))) {
+			System.err.println("A streamed run cannot be sharded or aggregated, since it never holds all of the variants");
+			return;
+		}
+		if (options.containsKey("placement") && (options.containsKey("cache") || options.containsKey("stream")
+				|| options.containsKey("shared-anchors") || options.containsKey("importance"))) {
+			System.err.println("Window placement cannot be combined with --cache, --stream, --shared-anchors or --importance");
+			return;
+		}
+		if (options.containsKey("placement")) {
+			int samples = options.containsKey("samples") ? Integer.parseInt(options.get("samples")) : GetDistOfGOI.DEFAULT_NUMBER_OF_SAMPLES;
+			int replicates = options.containsKey("replicates") ? Integer.parseInt(options.get("replicates")) : WindowPlacement.DEFAULT_REPLICATES;
+			if (replicates < 2 || samples % replicates != 0) {
+				System.err.println("Window placement needs at least 2 --replicates that evenly divide the " + samples + " samples");
+				return;
+			}
+		}
+		if (options.containsKey("importance") && (options.containsKey("shard") || options.containsKey("stream")
+				|| options.containsKey("shared-anchors") || options.containsKey("aggregate"))) {
+			System.err.println("An importance sampling run cannot be combined with --shard, --stream, --shared-anchors or --aggregate");
+			return;
+		}
+		if (options.containsKey("shared-anchors") && (options.containsKey("shard") || options.containsKey("stream"))) {
+			System.err.println("A run with shared anchors samples all of its sizes at once and cannot be sharded or streamed");
+			return;
+		}
+		if ((options.containsKey("record-windows") || options.containsKey("replay")) && !options.containsKey("seed")) {
+			System.err.println("Windows are stored by seed, a run using --record-windows or --replay must be given a --seed");
+			return;
+		}
+		if (options.containsKey("record-windows") && (options.containsKey("stream") || options.containsKey("placement")
+				|| options.containsKey("shared-anchors") || options.containsKey("importance"))) {
+			System.err.println("Windows can only be recorded by a run that draws them uniformly with bedtools, "
+					+ "not with --stream, --placement, --shared-anchors or --importance");
+			return;
+		}
+		if (options.containsKey("count-matrix") && (options.containsKey("stream") || options.containsKey("importance")
+				|| options.containsKey("budget") || options.containsKey("replay"))) {
+			System.err.println("A count matrix has one row of --samples counts per variant of the vcf file "
+					+ "and cannot be written by a run with --stream, --importance, --budget or --replay");
+			return;
+		}
+		if (options.containsKey("observed") && (options.containsKey("stream") || options.containsKey("importance")
+				|| options.containsKey("budget") || options.containsKey("replay"))) {
+			System.err.println("Observed counts are compared to the distribution of each variant of the vcf file "
+					+ "and cannot be added by a run with --stream, --importance, --budget or --replay");
+			return;
+		}
+		if (options.containsKey("budget") && (options.containsKey("shard") || options.containsKey("cache") || options.containsKey("stream")
+				|| options.containsKey("shared-anchors") || options.containsKey("importance") || options.containsKey("placement")
+				|| options.containsKey("aggregate") || options.containsKey("record-windows"))) {
+			System.err.println("A budgeted run gives each variant its own number of samples and cannot be combined with --shard, --cache, "
+					+ "--stream, --shared-anchors, --importance, --placement, --aggregate or --record-windows");
+			return;
+		}
+		if (options.containsKey("budget")) {
+			int samples = options.containsKey("samples") ? Integer.parseInt(options.get("samples")) : GetDistOfGOI.DEFAULT_NUMBER_OF_SAMPLES;
+			int minSamples = options.containsKey("min-samples") ? Integer.parseInt(options.get("min-samples")) : SampleBudget.DEFAULT_MIN_SAMPLES;
+			if (Double.parseDouble(options.get("budget")) <= 0 || minSamples < 1 || minSamples > samples) {
+				System.err.println("A budgeted run needs a positive --budget and --min-samples from 1 to the " + samples + " --samples per batch");
+				return;
+			}
+		}
+		
+		if (options.containsKey("replay")) {
+			// Only the gene descriptions and the variant sizes are needed, the genome and exonerate files are only checksummed
+			InputLoader loader = new InputLoader();
+			Future<SampleReplayStore> store = loader.submit("replay store", () -> new SampleReplayStore(options.get("replay"), positional.get(0), positional.get(1),
+					GetDistOfGOI.getSampleCount()));
+			Future<AnalyzeGOIInSample> ags = loader.submit("reference gff", () -> new AnalyzeGOIInSample(positional.get(2), positional.get(1)));
+			Future<VariantReader> vr = loader.submit("vcf file", () -> new VariantReader(positional.get(3)));
+			if (!loader.awaitAll()) {
+				System.exit(1);
+			}
+			store.resultNow().writeResults(vr.resultNow().getVariants(), Long.parseLong(options.get("seed")), goi.split(","), ags.resultNow(), prefix);
+			return;
+		}
+		
+		// Every input is read at the same time, a streamed run reads its vcf file as it goes
+		InputLoader loader = new InputLoader();
+		Future<GenomeSample> loadedGenome = loader.submit("genome", () -> new GenomeSample(new File(positional.get(0))));
+		Future<String> loadedOverlapFile = loader.submit("exonerate file", () -> overlapFileFor(positional.get(1), options));
+		Future<AnalyzeGOIInSample> loadedGff = loader.submit("reference gff", () -> new AnalyzeGOIInSample(positional.get(2), positional.get(1)));
+		Future<ResultCache> loadedCache = loader.submit("cache", () -> cacheFor(positional, options));
+		Future<VariantReader> loadedVariants = null;
+		if (!options.containsKey("stream")) {
+			loadedVariants = loader.submit("vcf file", () -> new VariantReader(positional.get(3)));
+		}
+		Future<SampleReplayStore> loadedStore = null;
+		if (options.containsKey("record-windows")) {
+			loadedStore = loader.submit("replay store", () -> new SampleReplayStore(options.get("record-windows"), positional.get(0), positional.get(1),
+					GetDistOfGOI.getSampleCount()));
+		}
+		Future<ExonerateSpans> loadedSpans = null;
+		if (options.containsKey("shared-anchors") || options.containsKey("importance") || options.containsKey("observed")) {
+			// Overlaps are counted in memory, on the exonerate records collapsed into spans per gene
+			// The spans number their chromosomes with the contig dictionary of the genome
+			loadedSpans = loader.submit("exonerate spans", () -> new ExonerateSpans(positional.get(1), loadedGenome.get().getContigs()));
+		}
+		if (!loader.awaitAll()) {
+			System.exit(1);
+		}
+		
+		GenomeSample gs = loadedGenome.resultNow();
+		reportUnknownContigs(gs, loadedGff.resultNow(), loadedSpans == null);
+		if (loadedVariants != null) {
+			// A streamed run reports the contigs of its vcf file once it is read
+			gs.getContigs().reportUnknown("vcf file", loadedVariants.resultNow().getContigs());
+		}
+		String overlapFile = loadedOverlapFile.resultNow();
+		BedtoolsWrapper bw = new BedtoolsWrapper(overlapFile);
+		AnalyzeGOIInSample ags = loadedGff.resultNow();
+		ResultCache cache = loadedCache.resultNow();
+		
+		if (options.containsKey("stream")) {
+			Long seed = null;
+			if (options.containsKey("seed")) {
+				seed = Long.parseLong(options.get("seed"));
+			}
+			int threads = Runtime.getRuntime().availableProcessors();
+			if (options.containsKey("threads")) {
+				threads = Integer.parseInt(options.get("threads"));
+			}
+			int inFlight = 2 * threads;
+			if (options.containsKey("in-flight")) {
+				inFlight = Integer.parseInt(options.get("in-flight"));
+			}
+			int flushEvery = 1;
+			if (options.containsKey("flush-every")) {
+				flushEvery = Integer.parseInt(options.get("flush-every"));
+			}
+			StreamingRunner runner = new StreamingRunner(gs, overlapFile, ags, cache, seed);
+			runner.setResultsOptions(!"completion".equals(options.get("results-order")), flushEvery);
+			runner.run(positional.get(3), goi, prefix, threads, inFlight);
+			return;
+		}
+		
+		if (options.containsKey("importance")) {
+			// Replaces the uniform experiment with weighted windows drawn near the genes of interest
+			int samples = 1000;
+			if (options.containsKey("importance-samples")) {
+				samples = Integer.parseInt(options.get("importance-samples"));
+			}
+			Long seed = null;
+			if (options.containsKey("seed")) {
+				seed = Long.parseLong(options.get("seed"));
+			}
+			new File(prefix).mkdir();
+			ImportanceSampler sampler = new ImportanceSampler(gs, loadedSpans.resultNow(), ags, goi);
+			sampler.writeReport(loadedVariants.resultNow().getVariants(), samples, seed, prefix + "/importance_" + goi + ".txt");
+			return;
+		}
+		
+		if (options.containsKey("budget")) {
+			// The clock starts once the inputs are loaded
+			Long seed = null;
+			if (options.containsKey("seed")) {
+				seed = Long.parseLong(options.get("seed"));
+			}
+			int minSamples = SampleBudget.DEFAULT_MIN_SAMPLES;
+			if (options.containsKey("min-samples")) {
+				minSamples = Integer.parseInt(options.get("min-samples"));
+			}
+			new File(prefix).mkdir();
+			SampleBudget budget = new SampleBudget(new GetDistOfGOI(gs, bw, ags, logPrefix(prefix)), goi, seed, minSamples);
+			budget.run(loadedVariants.resultNow().getVariants(), (long)(Double.parseDouble(options.get("budget")) * 1000));
+			try {
+				budget.writeResults(prefix + "/results_" + goi + ".txt");
+			} catch (FileNotFoundException e) {
+				e.printStackTrace();
+			}
+			return;
+		}
+		
+		SharedAnchorSweep sweep = null;
+		if (options.containsKey("shared-anchors")) {
+			sweep = new SharedAnchorSweep(gs, loadedSpans.resultNow(), ags, goi);
 		}
 		
+		SampleReplayStore store = loadedStore == null ? null : loadedStore.resultNow();
+		ObservedCounts observed = null;
+		if (options.containsKey("observed")) {
+			observed = new ObservedCounts(loadedSpans.resultNow(), ags, goi);
+		}
+		runJob(gs, bw, ags, cache, loadedVariants.resultNow(), goi, prefix, prefix + "/results_" + goi + ".txt", options, sweep, store, observed);
+	
+	} // end main
+	
+	/**
+	 * Runs the sampling experiment for every structural variant of one vcf file and writes the results.
+	 * The genome, wrapper and gff objects are only read from, so loaded inputs can be reused between jobs
+	 * @param gs the loaded genome
+	 * @param bw the bedtools wrapper to find overlapping genes with, can be shared with jobs running at the same time
+	 * @param ags the loaded genome gff file, can be shared with jobs running at the same time
+	 * @param cache the cache of distributions already sampled against the same inputs, or null to sample every variant
+	 * @param vcfFile the vcf file of called structural variants
+	 * @param goi the gene of interest
+	 * @param prefix the prefix (and directory) of the output files
+	 * @param resultsFile the file to write the result of every variant to. Shards write their partial results in the prefix directory instead
+	 * @param options the --seed, --shard, --results-order, --flush-every, --aggregate, --observed-total, --placement, --replicates, --count-matrix and --matrix-width options of the job, if any
+	 * @return the file the results were written to
+	 */
+	public static String runJob(GenomeSample gs, BedtoolsWrapper bw, AnalyzeGOIInSample ags, ResultCache cache, String vcfFile, String goi,
+			String prefix, String resultsFile, HashMap<String, String> options) {
+		return runJob(gs, bw, ags, cache, new VariantReader(vcfFile), goi, prefix, resultsFile, options, null, null, null);
+	}
+	
+	/**
+	 * Runs the sampling experiment for every structural variant of one vcf file and writes the results,
+	 * sampling every size of the vcf file from the shared anchors of a sweep if one is given
+	 * and keeping the windows of every seeded distribution in a replay store if one is given.
+	 * With the observed counts, every results line ends with the count of the gene of interest at the
+	 * variant's own coordinates and its empirical p-value
+	 * @param gs the loaded genome
+	 * @param bw the bedtools wrapper to find overlapping genes with, can be shared with jobs running at the same time
+	 * @param ags the loaded genome gff file, can be shared with jobs running at the same time
+	 * @param cache the cache of distributions already sampled against the same inputs, or null to sample every variant
+	 * @param vr the loaded vcf file of called structural variants
+	 * @param goi the gene of interest
+	 * @param prefix the prefix (and directory) of the output files
+	 * @param resultsFile the file to write the result of every variant to. Shards write their partial results in the prefix directory instead
+	 * @param options the --seed, --shard, --results-order, --flush-every, --aggregate, --observed-total, --placement, --replicates, --count-matrix and --matrix-width options of the job, if any
+	 * @param sweep the sweep of shared anchors for the gene of interest, or null to sample each variant on its own
+	 * @param replayStore the store to write the windows of every seeded distribution to, or null to not keep them
+	 * @param observedCounts the counter of the genes of interest at the coordinates of the variants, or null to not count them
+	 * @return the file the results were written to
+	 */
+	public static String runJob(GenomeSample gs, BedtoolsWrapper bw, AnalyzeGOIInSample ags, ResultCache cache, VariantReader vr, String goi,
+			String prefix, String resultsFile, HashMap<String, String> options, SharedAnchorSweep sweep, SampleReplayStore replayStore,
+			ObservedCounts observedCounts) {
 		new File(prefix).mkdir();
 		
-		File inputFile = new File(args[0]);
-		GenomeSample gs = new GenomeSample(inputFile);
-		BedtoolsWrapper bw = new BedtoolsWrapper(args[1]);
-		AnalyzeGOIInSample ags = new AnalyzeGOIInSample(args[2]);
-		VariantReader vr = new VariantReader(args[3]);
-		GetDistOfGOI dist = new GetDistOfGOI(gs, bw, ags, prefix + "/" + prefix);
-		VariantAnalyzer va = new VariantAnalyzer(vr, dist, prefix + "/" + prefix);
+		GetDistOfGOI dist = new GetDistOfGOI(gs, bw, ags, logPrefix(prefix));
+		VariantAnalyzer va = new VariantAnalyzer(vr, dist, logPrefix(prefix));
 		
-		va.runExperiment(goi);
-		ArrayList<Integer> results = va.getCutOffs();
-		ArrayList<SVSize> vars = vr.getVariants();
+		int shardIndex = 0;
+		int shardCount = 1;
+		if (options.containsKey("shard")) {
+			int [] shard = parseShard(options.get("shard"));
+			shardIndex = shard[0];
+			shardCount = shard[1];
+		}
+		if (options.containsKey("seed")) {
+			va.setSeed(Long.parseLong(options.get("seed")));
+		}
+		va.setShard(shardIndex, shardCount);
+		va.setCache(cache);
+		va.setSweep(sweep);
+		va.setReplayStore(replayStore);
+		if (observedCounts != null) {
+			// Every variant is counted in one sweep before any is sampled
+			va.setObservedCounts(observedCounts.count(vr.getVariants()));
+		}
+		if (options.containsKey("placement")) {
+			int replicates = WindowPlacement.DEFAULT_REPLICATES;
+			if (options.containsKey("replicates")) {
+				replicates = Integer.parseInt(options.get("replicates"));
+			}
+			dist.setPlacement(new WindowPlacement(options.get("placement"), replicates));
+		}
 		
+		// Each variant is written as soon as it is finished
+		boolean vcfOrder = !"completion".equals(options.get("results-order"));
+		int flushEvery = 1;
+		if (options.containsKey("flush-every")) {
+			flushEvery = Integer.parseInt(options.get("flush-every"));
+		}
+		ResultsWriter results;
 		try {
-			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream("results_" + goi + ".txt")));		
-			for (int i = 0; i < results.size(); i++) {
-				out.write(vars.get(i).getID() + "\t" + results.get(i).toString() + "\n");
+			if (shardCount > 1) {
+				// Partial results keep the index of each variant so the shards can be merged back in order
+				resultsFile = logPrefix(prefix) + "_shard_" + shardIndex + "_of_" + shardCount + "_results_" + goi + ".txt";
+				results = new ResultsWriter(resultsFile, vcfOrder, true, flushEvery);
+				results.writeHeader(ShardMerger.HEADER + "\t" + shardIndex + "/" + shardCount + "\t" + vr.getVariants().size());
+			} else {
+				results = new ResultsWriter(resultsFile, vcfOrder, false, flushEvery);
 			}
-			out.close();
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
+			return null;
 		}
+		va.setResultsWriter(results);
 		
-	} // end main
+		AggregateTest aggregate = null;
+		if (options.containsKey("aggregate")) {
+			aggregate = new AggregateTest();
+			va.setAggregateTest(aggregate);
+		}
+		
+		// Shards fill their own rows of their own matrix, the other rows are left unfinished
+		CountMatrixWriter matrix = null;
+		if (options.containsKey("count-matrix")) {
+			String matrixFile = prefix + "/counts_" + goi + ".svcm";
+			if (shardCount > 1) {
+				matrixFile = logPrefix(prefix) + "_shard_" + shardIndex + "_of_" + shardCount + "_counts_" + goi + ".svcm";
+			}
+			try {
+				matrix = new CountMatrixWriter(matrixFile, vr.getVariants(), dist.NUMBER_OF_SAMPLES, matrixWidth(options));
+			} catch (IOException e) {
+				e.printStackTrace();
+				results.close();
+				return null;
+			}
+			va.setCountMatrix(matrix);
+		}
+		
+		va.runExperiment(goi);
+		results.close();
+		if (matrix != null) {
+			matrix.close();
+		}
+		
+		if (aggregate != null) {
+			Integer observed = null;
+			if (options.containsKey("observed-total")) {
+				observed = Integer.parseInt(options.get("observed-total"));
+			} else if (observedCounts != null) {
+				observed = va.getObservedTotal();
+				if (observed == null) {
+					System.err.println("Some variants are on contigs that are not in the genome, give the observed total with --observed-total");
+				}
+			}
+			aggregate.writeReport(prefix + "/aggregate_" + goi + ".txt", observed);
+		}
+		
+		return resultsFile;
+	}
+	
+	/**
+	 * Finds the prefix of the log files of a run: the prefix directory, then the last name of the prefix,
+	 * so a prefix given as a path keeps its logs in its own directory
+	 * @param prefix the prefix (and directory) of the output files
+	 * @return the prefix of the log files
+	 */
+	public static String logPrefix(String prefix) {
+		return prefix + "/" + new File(prefix).getName();
+	}
+	
+	/**
+	 * Finds the width of a count in the count matrix
+	 * @param options the options of the run
+	 * @return the --matrix-width option, or CountMatrixWriter.DEFAULT_WIDTH
+	 */
+	private static int matrixWidth(HashMap<String, String> options) {
+		if (options.containsKey("matrix-width")) {
+			return Integer.parseInt(options.get("matrix-width"));
+		}
+		return CountMatrixWriter.DEFAULT_WIDTH;
+	}
+	
+	/**
+	 * Finds the file overlaps are searched in: the exonerate file itself, or its collapsed
+	 * gene spans with --collapse-spans. The cache still keys on the original file
+	 * @param exonerateFile path to the gff file created from mapping proteins to the genome with exonerate
+	 * @param options the options of the run
+	 * @return the path of the file for bedtools to search
+	 * @throws FileNotFoundException if the exonerate file does not exist
+	 */
+	private static String overlapFileFor(String exonerateFile, HashMap<String, String> options) throws FileNotFoundException {
+		if (!new File(exonerateFile).isFile()) {
+			throw new FileNotFoundException("Could not find the exonerate gff file " + exonerateFile);
+		}
+		if (options.containsKey("collapse-spans")) {
+			return ExonerateSpans.sidecarFor(exonerateFile);
+		}
+		return exonerateFile;
+	}
+	
+	/**
+	 * Reports once, at load time, the contigs of the genome gff file and of the records the exonerate file
+	 * maps genes to that the genome does not have. Genes on them can never be found in a sample
+	 * @param gs the loaded genome
+	 * @param ags the loaded genome gff file, read with the exonerate file
+	 * @param exonerate true to also report the exonerate contigs, false if the exonerate spans already did
+	 */
+	private static void reportUnknownContigs(GenomeSample gs, AnalyzeGOIInSample ags, boolean exonerate) {
+		if (exonerate && ags.getMappedContigs() != null) {
+			gs.getContigs().reportUnknown("exonerate file", ags.getMappedContigs());
+		}
+		gs.getContigs().reportUnknown("reference gff", ags.getReferenceContigs());
+	}
+	
+	/**
+	 * Opens the cache of the run if one was asked for
+	 * @param positional the genome, exonerate and reference gff files of the run, in that order
+	 * @param options the options of the run
+	 * @return the cache, or null if the run has no --cache
+	 */
+	private static ResultCache cacheFor(ArrayList<String> positional, HashMap<String, String> options) {
+		if (!options.containsKey("cache")) {
+			return null;
+		}
+		return new ResultCache(options.get("cache"), positional.get(0), positional.get(2), positional.get(1));
+	}
+	
+	/**
+	 * Parses a shard given as <index>/<count>
+	 * @param shard the shard option
+	 * @return an int array of the index and the count, or null if the shard is not valid
+	 */
+	public static int[] parseShard(String shard) {
+		String [] vals = shard.split("/");
+		if (vals.length != 2) {
+			return null;
+		}
+		try {
+			int [] parsed = {Integer.parseInt(vals[0]), Integer.parseInt(vals[1])};
+			if (parsed[1] < 1 || parsed[0] < 0 || parsed[0] >= parsed[1]) {
+				return null;
+			}
+			return parsed;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Splits the command line into --name value options and positional arguments.
+	 * Options listed in FLAGS take no value and are stored as true
+	 * @param args the command line arguments
+	 * @param options the map to fill with the options found, keyed by name without the leading dashes
+	 * @return the positional arguments in order, or null if an option is missing its value
+	 */
+	public static ArrayList<String> parseOptions(String[] args, HashMap<String, String> options) {
+		ArrayList<String> positional = new ArrayList<String>();
+		
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].startsWith("--") && Arrays.asList(FLAGS).contains(args[i].substring(2))) {
+				options.put(args[i].substring(2), "true");
+			} else if (args[i].startsWith("--")) {
+				if (i + 1 >= args.length) {
+					System.err.println("Missing value for option " + args[i]);
+					return null;
+				}
+				options.put(args[i].substring(2), args[i + 1]);
+				i++;
+			} else {
+				positional.add(args[i]);
+			}
+		}
+		
+		return positional;
+	}
+	
+	/**
+	 * Checks that every numeric option given is a number in its range, before any of them is used
+	 * @param options the options of the run
+	 * @return true if every numeric option is valid, otherwise false after printing the first one that is not
+	 */
+	public static boolean checkNumbers(HashMap<String, String> options) {
+		for (int i = 0; i < INT_OPTIONS.length; i++) {
+			String value = options.get(INT_OPTIONS[i]);
+			if (value == null) {
+				continue;
+			}
+			boolean valid;
+			try {
+				int n = Integer.parseInt(value);
+				valid = n >= INT_RANGES[i][0] && n <= INT_RANGES[i][1];
+			} catch (NumberFormatException e) {
+				valid = false;
+			}
+			if (!valid) {
+				String range = INT_RANGES[i][1] == Integer.MAX_VALUE ? "of at least " + INT_RANGES[i][0]
+						: "from " + INT_RANGES[i][0] + " to " + INT_RANGES[i][1];
+				System.err.println("--" + INT_OPTIONS[i] + " must be a whole number " + range + ", not " + value);
+				return false;
+			}
+		}
+		if (options.containsKey("seed")) {
+			try {
+				Long.parseLong(options.get("seed"));
+			} catch (NumberFormatException e) {
+				System.err.println("--seed must be a whole number, not " + options.get("seed"));
+				return false;
+			}
+		}
+		if (options.containsKey("budget")) {
+			double budget;
+			try {
+				budget = Double.parseDouble(options.get("budget"));
+			} catch (NumberFormatException e) {
+				budget = Double.NaN;
+			}
+			if (!(budget > 0) || Double.isInfinite(budget)) {
+				System.err.println("--budget must be a positive number of seconds, not " + options.get("budget"));
+				return false;
+			}
+		}
+		return true;
+	}
 	
 	/**
 	 * Usage message detailing required arguments
 	 */
 	public static void usage() {
-		System.out.println("You MUST provide four arguments in the following order:\n"
+		System.out.println("You MUST provide five arguments in the following order:\n"
 				+ "Genome file in fasta format, exonerate mapping file in gff format, "
 				+ "gff file of reference genome, vcf file of called structural variants, "
-				+ "prefix of output files");
+				+ "prefix of output files\n"
+				+ "Options: --seed <number> to make the sampling reproducible, "
+				+ "--shard <index>/<count> to only process variants with (vcf record index % count) == index; "
+				+ "merge the shard results with ShardMerger; --goi <name> to change the gene of interest (default VSP); "
+				+ "--cache <dir> to reuse the distributions of earlier runs with the same inputs and seed; "
+				+ "--results-order vcf|completion (default vcf) and --flush-every <lines> (default 1) for <prefix>/results_<goi>.txt, "
+				+ "which gets the id, size, cutoff and number of samples of each variant as soon as it is finished; "
+				+ "--bedtools-processes <n> to limit how many bedtools processes run at once (default one per processor); "
+				+ "--collapse-spans to search overlaps in the exonerate records merged into spans per gene, "
+				+ "kept next to the exonerate file as <exonerate file>" + ExonerateSpans.SIDECAR_SUFFIX + "; "
+				+ "--aggregate to also write <prefix>/aggregate_<goi>.txt, the null distribution of the total count across all variants "
+				+ "convolved from the per-variant distributions, with the p-value of --observed-total <n> if given, "
+				+ "or of the sum of the observed counts with --observed; "
+				+ "--stream [--threads <n>] [--in-flight <n>] to read, sample and write the variants as they go, "
+				+ "with at most --in-flight variants (default twice the threads) held in memory at once; "
+				+ "--shared-anchors to sample every size from one pool of random window starts grown through the sorted sizes, "
+				+ "counting overlaps in memory instead of with bedtools; "
+				+ "--importance [--importance-samples <n>] (default 1000) to instead write <prefix>/importance_<goi>.txt, "
+				+ "the tail probability and standard error of every count of each variant, from windows drawn near the genes of interest "
+				+ "and reweighted to uniform placement; --samples <n> (default " + GetDistOfGOI.DEFAULT_NUMBER_OF_SAMPLES + ") samples per variant; "
+				+ "--placement stratified|sequence [--replicates <n>] (default " + WindowPlacement.DEFAULT_REPLICATES + ") to place the windows "
+				+ "in jittered strata or along a randomly shifted van der Corput sequence over the valid starts, split into replicates, "
+				+ "adding the standard error of the cutoff, the mean count and its standard error to each results line; "
+				+ "--record-windows <dir> to keep the windows of every seeded distribution with the genes overlapping them; "
+				+ "--replay <dir> with the same --seed and --samples to instead write <prefix>/results_<goi>.txt for each of --goi <name>[,<name>...] "
+				+ "by counting the genes of interest in the kept windows, without sampling or running bedtools; "
+				+ "--budget <seconds> [--min-samples <n>] (default " + SampleBudget.DEFAULT_MIN_SAMPLES + ") to give every variant the minimum "
+				+ "number of samples, then spend the rest of the budget in batches of at most --samples on the least certain cutoffs, "
+				+ "adding the 95% interval of the cutoff and its standard error to each results line; "
+				+ "--count-matrix [--matrix-width 1|2|4] (default " + CountMatrixWriter.DEFAULT_WIDTH + ") to also write <prefix>/counts_<goi>.svcm, "
+				+ "the count of the gene of interest in every sample of every variant as a little-endian matrix with a row per variant, "
+				+ "filled in as each variant finishes (also in batch mode); "
+				+ "--pipeline <batches> (at least 2) to pass batches of --bedtools-processes samples through the draw, bedtools, "
+				+ "id resolution and log stages running at the same time, with at most that many batches in flight; "
+				+ "--observed to also count the genes of interest between the POS and END of each variant in one sweep over "
+				+ "the exonerate spans, adding the observed count and its p-value (1 + samples >= observed) / (1 + samples) "
+				+ "to the end of each results line, NA for variants on contigs that are not in the genome\n"
+				+ "Batch mode: --batch <manifest> [--threads <n>] followed by the genome, exonerate and reference gff files "
+				+ "runs every vcf<TAB>gene of interest<TAB>prefix row of the manifest, writing <prefix>/results_<gene of interest>.txt\n"
+				+ "Server mode: --server <port> [--threads <n>] followed by the genome, exonerate and reference gff files "
+				+ "keeps them loaded and runs jobs sent with --submit <port> <vcf file> <gene of interest>[,<gene of interest>...] <prefix>, "
+				+ "writing <prefix>/results_<goi>.txt for each gene of interest");
 	}
 	
 } // end class SVAnalysis
@@ -7,6 +7,9 @@ public class SVSize {
 
 	private String id;
 	private int size;
+	private String chr = null;
+	private int pos;
+	private int end;
 	
 	/**
 	 * Constructor
@@ -18,6 +21,21 @@ public class SVSize {
 		size = svSize;
 	}
 	
+	/**
+	 * Constructor for a structural variant with its position in the genome
+	 * @param svID the id of the new structural variant
+	 * @param svSize the size of the new structural variant
+	 * @param chrom the chromosome of the variant
+	 * @param svPos the position of the variant, the POS column of the vcf file
+	 * @param svEnd the end of the variant, the END of the vcf record or svPos if it has none
+	 */
+	public SVSize(String svID, int svSize, String chrom, int svPos, int svEnd) {
+		this(svID, svSize);
+		chr = chrom;
+		pos = svPos;
+		end = svEnd;
+	}
+	
 	/**
 	 * Getter for the ID of the structural variant
 	 * @return variant id
@@ -34,4 +52,28 @@ public class SVSize {
 		return size;
 	}
 	
+	/**
+	 * Getter for the chromosome of the structural variant
+	 * @return the chromosome, or null if the variant was made without a position
+	 */
+	public String getChr() {
+		return chr;
+	}
+	
+	/**
+	 * Getter for the position of the structural variant
+	 * @return the POS column of the vcf record
+	 */
+	public int getPos() {
+		return pos;
+	}
+	
+	/**
+	 * Getter for the end of the structural variant
+	 * @return the END of the vcf record, or the position if the record has none
+	 */
+	public int getEnd() {
+		return end;
+	}
+	
 } // end class SVSize
@@ -7,6 +7,8 @@ public class Sample {
 
 	// the chromosome and coordinates on that chromosome of the sample
 	private String chr;
+	private ContigDictionary contigs;
+	private int chrOrdinal = -1;
 	private int startCoord;
 	private int endCoord;
 	
@@ -22,14 +24,40 @@ public class Sample {
 		endCoord = e;
 	}
 	
+	/**
+	 * Constructor for a sample of a loaded genome. The name of the chromosome is only
+	 * looked up when it is asked for
+	 * @param dictionary the contig dictionary of the genome
+	 * @param ordinal the ordinal of the chromosome of the sample
+	 * @param s the start coordinate of the sample
+	 * @param e the end coordinate of the sample
+	 */
+	public Sample(ContigDictionary dictionary, int ordinal, int s, int e) {
+		contigs = dictionary;
+		chrOrdinal = ordinal;
+		startCoord = s;
+		endCoord = e;
+	}
+	
 	/**
 	 * Getter for chromosome name
 	 * @return chromosome name
 	 */
 	public String getChr() {
+		if (chr == null) {
+			chr = contigs.getName(chrOrdinal);
+		}
 		return chr;
 	}
 	
+	/**
+	 * Getter for the ordinal of the chromosome
+	 * @return the ordinal of the chromosome in the contig dictionary, or -1 if the sample was made from a name
+	 */
+	public int getChrOrdinal() {
+		return chrOrdinal;
+	}
+	
 	/**
 	 * Getter for sample start coordinate
 	 * @return start coordinate
@@ -50,7 +78,7 @@ public class Sample {
 	 * @return the values of the Sample object in tab delimited format
 	 */
 	public String toString() {
-		String s = chr + "\t" + startCoord + "\t" + endCoord;
+		String s = getChr() + "\t" + startCoord + "\t" + endCoord;
 		return s;
 	}
 } // end class Sample
@@ -0,0 +1,291 @@
+/**
+ * Class to sample a set of structural variants within a wall-clock budget.
+ * Variants of the same size share one distribution, so each size is sampled once and its
+ * cutoff is written for every variant of that size. Every size first gets a minimum number
+ * of samples, which also measures what a sample of each size costs. The rest of the budget
+ * goes in batches to the size whose next batch is expected to narrow the interval of its 95th
+ * percentile cutoff the most per nanosecond, each batch sized to fit the time left, so the run stops at the deadline with every variant's cutoff, sample
+ * count and precision
+ *
+ * The precision of a cutoff is the distribution-free 95% interval of the percentile from
+ * the order statistics of its samples, and the standard error that interval implies
+ * @author Stephen Pollo
+ */
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Random;
+
+public class SampleBudget {
+	
+	public static final int DEFAULT_MIN_SAMPLES = 100;
+	public static final double Z_95 = 1.959964;
+	private static final int COST_FIT_SIZES = 5; // sizes measured before the pilot round is checked against the budget
+	
+	private GetDistOfGOI dist;
+	private String goi;
+	private Long seed;
+	private int minSamples;
+	private ArrayList<SVSize> rows = new ArrayList<SVSize>(); // the variants in vcf order
+	private ArrayList<SizeSamples> rowSizes = new ArrayList<SizeSamples>(); // the samples of the size of each row
+	private ArrayList<SizeSamples> sizes = new ArrayList<SizeSamples>(); // each distinct size once, in order of its first variant
+	
+	/**
+	 * Class to hold the samples taken so far for one size, shared by every variant of that size
+	 * @author Stephen Pollo
+	 */
+	private class SizeSamples {
+		int size;
+		SVSize first; // the first variant of the size, named in messages
+		Random random;
+		int [] counts = new int[0];
+		long nanos = 0; // time spent sampling the size
+		boolean sampleable = true;
+		int lowIndex, cutoffIndex, highIndex; // order statistics of the cutoff and its interval, valid once sampled
+		
+		/**
+		 * Constructor
+		 * @param v the first structural variant of the size
+		 */
+		SizeSamples(SVSize v) {
+			size = v.getSize();
+			first = v;
+			random = seed == null ? new Random() : new Random(VariantAnalyzer.variantSeed(seed, size));
+		}
+		
+		/**
+		 * Takes more samples of the size, continuing its random stream
+		 * @param count the number of samples to take
+		 */
+		void sample(int count) {
+			long start = System.nanoTime();
+			int [] more;
+			try {
+				more = dist.getDist(size, goi, "size_" + size + "_" + goi, random, count);
+			} catch (IllegalArgumentException e) {
+				System.err.println(e);
+				System.err.println("Variant " + first.getID() + " has a size that cannot be sampled");
+				System.err.println("Skipping the variants of size " + size + ", sorry 'bout it");
+				sampleable = false;
+				return;
+			}
+			nanos += System.nanoTime() - start;
+			
+			int [] all = Arrays.copyOf(counts, counts.length + more.length);
+			System.arraycopy(more, 0, all, counts.length, more.length);
+			Arrays.sort(all);
+			counts = all;
+			
+			// The rank of the percentile is binomial, its 95% interval bounds the cutoff
+			int n = counts.length;
+			cutoffIndex = VariantAnalyzer.calculatePercentile(95.0, counts);
+			int halfWidth = (int)Math.ceil(Z_95 * Math.sqrt(n * 0.95 * 0.05));
+			lowIndex = Math.max(0, cutoffIndex - halfWidth);
+			highIndex = Math.min(n - 1, cutoffIndex + halfWidth);
+		}
+		
+		/**
+		 * Getter for the measured cost of one sample
+		 * @return the average time of one sample of the size in nanoseconds
+		 */
+		double costPerSample() {
+			return (double)nanos / counts.length;
+		}
+		
+		/**
+		 * Getter for the width of the 95% interval of the cutoff
+		 * @return the difference between the upper and lower bound of the interval
+		 */
+		int width() {
+			return counts[highIndex] - counts[lowIndex];
+		}
+		
+		/**
+		 * Estimates how much a batch narrows the interval of the cutoff for the time it takes.
+		 * The width shrinks with the square root of the number of samples
+		 * @param batch the number of samples to add
+		 * @return the expected narrowing of the interval per nanosecond of sampling
+		 */
+		double gainPerNano(int batch) {
+			int n = counts.length;
+			double narrowing = width() * (1 - Math.sqrt((double)n / (n + batch)));
+			return narrowing / (batch * Math.max(1.0, costPerSample()));
+		}
+	} // end class SizeSamples
+	
+	/**
+	 * Constructor
+	 * @param distribution the sampler to take the samples with
+	 * @param geneOfInterest the gene of interest
+	 * @param runSeed the seed of the run, or null for unseeded samples
+	 * @param min the number of samples every size gets before any size gets more
+	 */
+	public SampleBudget(GetDistOfGOI distribution, String geneOfInterest, Long runSeed, int min) {
+		if (min < 1 || min > distribution.NUMBER_OF_SAMPLES) {
+			throw new IllegalArgumentException("The minimum number of samples must be from 1 to " + distribution.NUMBER_OF_SAMPLES);
+		}
+		dist = distribution;
+		goi = geneOfInterest;
+		seed = runSeed;
+		minSamples = min;
+		dist.setContinueLogs(true);
+	}
+	
+	/**
+	 * Samples the variants until the budget runs out. The clock starts when the method is called
+	 * @param svs the structural variants to sample
+	 * @param budgetMillis the wall-clock budget in milliseconds
+	 */
+	public void run(ArrayList<SVSize> svs, long budgetMillis) {
+		long deadline = System.nanoTime() + budgetMillis * 1000000L;
+		rows.clear();
+		rowSizes.clear();
+		sizes.clear();
+		// The same size and seed would draw the same windows, so the variants of a size share its samples
+		LinkedHashMap<Integer, SizeSamples> bySize = new LinkedHashMap<Integer, SizeSamples>();
+		for (SVSize v : svs) {
+			SizeSamples s = bySize.get(v.getSize());
+			if (s == null) {
+				s = new SizeSamples(v);
+				bySize.put(v.getSize(), s);
+			}
+			rows.add(v);
+			rowSizes.add(s);
+		}
+		sizes.addAll(bySize.values());
+		
+		// Pilot round: the minimum for every size, which measures the cost of each size
+		for (int i = 0; i < sizes.size(); i++) {
+			SizeSamples s = sizes.get(i);
+			long left = deadline - System.nanoTime();
+			if (i > 0 && left < minSamples * predictCost(s.size, i)) {
+				System.err.println("The budget ran out after the first " + minSamples + " samples of " + i + " of "
+						+ sizes.size() + " sizes, the variants of the rest are written with 0 samples");
+				return;
+			}
+			s.sample(minSamples);
+			if (i + 1 == COST_FIT_SIZES && i + 1 < sizes.size()) {
+				warnIfShort(deadline, i + 1);
+			}
+		}
+		
+		// Extra rounds: a batch at a time to the least certain cutoff
+		int rounds = 0;
+		while (true) {
+			SizeSamples next = leastCertain();
+			if (next == null) {
+				break;
+			}
+			long left = deadline - System.nanoTime();
+			// Double the samples of the size, but only as many as fit in the time left
+			int batch = Math.min(next.counts.length, dist.NUMBER_OF_SAMPLES);
+			batch = (int)Math.min(batch, left / next.costPerSample());
+			if (batch < 1) {
+				break;
+			}
+			next.sample(batch);
+			rounds++;
+		}
+		System.err.println("Budget used with " + rounds + " extra batches after the first " + minSamples + " samples of every size");
+	}
+	
+	/**
+	 * Warns once when the pilot round of the sizes not sampled yet is not expected to fit in the budget
+	 * @param deadline the deadline of the run, from System.nanoTime()
+	 * @param measured the number of sizes sampled so far
+	 */
+	private void warnIfShort(long deadline, int measured) {
+		double needed = 0;
+		for (int i = measured; i < sizes.size(); i++) {
+			needed += minSamples * predictCost(sizes.get(i).size, measured);
+		}
+		double left = deadline - System.nanoTime();
+		if (needed > left) {
+			System.err.printf("The budget is about %.1f s short of giving every size %d samples%n", (needed - left) / 1e9, minSamples);
+		}
+	}
+	
+	/**
+	 * Predicts the cost of one sample of a size from the sizes measured so far, with a
+	 * least squares line of the cost per sample against the size
+	 * @param size the size of the samples
+	 * @param measured the number of sizes sampled so far, from the start of the list
+	 * @return the predicted time of one sample in nanoseconds
+	 */
+	private double predictCost(int size, int measured) {
+		double n = 0, sx = 0, sy = 0, sxx = 0, sxy = 0, cheapest = Double.MAX_VALUE;
+		for (int i = 0; i < measured; i++) {
+			SizeSamples s = sizes.get(i);
+			if (!s.sampleable) {
+				continue;
+			}
+			double x = s.size, y = s.costPerSample();
+			n++;
+			sx += x;
+			sy += y;
+			sxx += x * x;
+			sxy += x * y;
+			cheapest = Math.min(cheapest, y);
+		}
+		if (n == 0) {
+			return 0;
+		}
+		double denominator = n * sxx - sx * sx;
+		if (n < 2 || denominator == 0) {
+			return sy / n;
+		}
+		double slope = (n * sxy - sx * sy) / denominator;
+		double intercept = (sy - slope * sx) / n;
+		// A sample never costs less than the cheapest measured one
+		return Math.max(intercept + slope * size, cheapest);
+	}
+	
+	/**
+	 * Finds the size to give the next batch: the most expected narrowing of the interval of the cutoff
+	 * per nanosecond, so a wide but slow size does not take the whole budget. Among equal gains the size
+	 * with the fewest samples
+	 * @return the size, or null if no size can be sampled
+	 */
+	private SizeSamples leastCertain() {
+		SizeSamples best = null;
+		double bestGain = 0;
+		for (SizeSamples s : sizes) {
+			if (!s.sampleable || s.counts.length == 0) {
+				continue;
+			}
+			double gain = s.gainPerNano(Math.min(s.counts.length, dist.NUMBER_OF_SAMPLES));
+			if (best == null || gain > bestGain
+					|| (gain == bestGain && s.counts.length < best.counts.length)) {
+				best = s;
+				bestGain = gain;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Writes one line per variant in vcf order: the id, size, cutoff and number of samples,
+	 * then the lower and upper bound of the 95% interval of the cutoff and its standard error.
+	 * Variants the budget did not reach have a cutoff and sample count of 0
+	 * @param resultsFile the file to write the results to
+	 * @throws FileNotFoundException if the results file cannot be created
+	 */
+	public void writeResults(String resultsFile) throws FileNotFoundException {
+		ResultsWriter out = new ResultsWriter(resultsFile, true, false, 1000);
+		for (int i = 0; i < rows.size(); i++) {
+			SizeSamples s = rowSizes.get(i);
+			if (!s.sampleable || s.counts.length == 0) {
+				out.write(i, i, rows.get(i), 0, 0);
+				continue;
+			}
+			int low = s.counts[s.lowIndex];
+			int high = s.counts[s.highIndex];
+			out.write(i, i, rows.get(i), s.counts[s.cutoffIndex], s.counts.length,
+					low + "\t" + high + "\t" + String.format("%.4f", (high - low) / (2 * Z_95)));
+		}
+		out.close();
+	}
+	
+} // end class SampleBudget
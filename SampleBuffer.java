@@ -0,0 +1,79 @@
+/**
+ * Class to hold the samples of one distribution in reusable primitive arrays
+ * instead of one Sample object per draw
+ * @author Stephen Pollo
+ */
+
+public class SampleBuffer {
+	
+	private int [] chrs; // ordinal of the chromosome of each sample in the genome index
+	private long [] coords; // start coordinate in the high 32 bits, end coordinate in the low 32 bits
+	private int count;
+	
+	/**
+	 * Constructor
+	 * @param capacity the largest number of samples the buffer will hold at once
+	 */
+	public SampleBuffer(int capacity) {
+		chrs = new int[capacity];
+		coords = new long[capacity];
+		count = 0;
+	}
+	
+	/**
+	 * Empties the buffer so it can be filled by the next distribution. The arrays are kept
+	 */
+	public void clear() {
+		count = 0;
+	}
+	
+	/**
+	 * Adds a sample to the end of the buffer
+	 * @param chr the ordinal of the chromosome of the sample
+	 * @param start the start coordinate of the sample
+	 * @param end the end coordinate of the sample
+	 */
+	public void add(int chr, int start, int end) {
+		if (count == chrs.length) {
+			throw new IllegalStateException("Sample buffer is full at " + count + " samples");
+		}
+		chrs[count] = chr;
+		coords[count] = ((long)start << 32) | (end & 0xFFFFFFFFL);
+		count++;
+	}
+	
+	/**
+	 * @return the number of samples in the buffer
+	 */
+	public int size() {
+		return count;
+	}
+	
+	/**
+	 * Getter for the chromosome ordinal of a sample
+	 * @param i the index of the sample
+	 * @return the ordinal of the chromosome in the genome index
+	 */
+	public int getChr(int i) {
+		return chrs[i];
+	}
+	
+	/**
+	 * Getter for the start coordinate of a sample
+	 * @param i the index of the sample
+	 * @return start coordinate
+	 */
+	public int getStartCoord(int i) {
+		return (int)(coords[i] >> 32);
+	}
+	
+	/**
+	 * Getter for the end coordinate of a sample
+	 * @param i the index of the sample
+	 * @return end coordinate
+	 */
+	public int getEndCoord(int i) {
+		return (int)coords[i];
+	}
+
+} // end class SampleBuffer
@@ -0,0 +1,303 @@
+/**
+ * Class to keep every sampled window of a distribution and the unique genes overlapping it on disk,
+ * so the distribution of any other gene of interest can be counted again without sampling the
+ * genome or searching the overlaps again. Only counting the genes of interest depends on the
+ * gene of interest, everything before it is kept here
+ *
+ * Each distribution is one binary file in the store directory, named after the checksums of the
+ * genome and exonerate files, the size, the seed and the number of samples. The file holds the table of gene ids found,
+ * then every window as its chromosome ordinal, start and the sorted ordinals of its genes,
+ * written as variable length integers with the gene ordinals delta encoded
+ * @author Stephen Pollo
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class SampleReplayStore {
+	
+	public static final int MAGIC = 0x53565257; // "SVRW"
+	public static final int VERSION = 2;
+	
+	/**
+	 * Defines the windows of one distribution while it is being sampled
+	 * @author Stephen Pollo
+	 */
+	public class Recording {
+		private int size;
+		private long seed;
+		private ArrayList<String> geneIds = new ArrayList<String>();
+		private HashMap<String, Integer> geneOrdinals = new HashMap<String, Integer>();
+		private ArrayList<int[]> windows = new ArrayList<int[]>(); // chromosome, start, then the gene ordinals
+		
+		/**
+		 * Constructor
+		 * @param sampleSize the size of the samples
+		 * @param runSeed the seed of the run
+		 */
+		private Recording(int sampleSize, long runSeed) {
+			size = sampleSize;
+			seed = runSeed;
+		}
+		
+		/**
+		 * Adds the next window of the distribution
+		 * @param chr the ordinal of the chromosome of the window in the genome index
+		 * @param start the start coordinate of the window
+		 * @param uniqueIds the ids of the unique genes overlapping the window
+		 */
+		public void add(int chr, int start, ArrayList<String> uniqueIds) {
+			int [] window = new int[2 + uniqueIds.size()];
+			window[0] = chr;
+			window[1] = start;
+			for (int i = 0; i < uniqueIds.size(); i++) {
+				Integer ordinal = geneOrdinals.get(uniqueIds.get(i));
+				if (ordinal == null) {
+					ordinal = geneIds.size();
+					geneOrdinals.put(uniqueIds.get(i), ordinal);
+					geneIds.add(uniqueIds.get(i));
+				}
+				window[2 + i] = ordinal;
+			}
+			Arrays.sort(window, 2, window.length);
+			windows.add(window);
+		}
+		
+		/**
+		 * Writes the recorded windows to the store. The file is written under a temporary
+		 * name and then moved into place, so a file in the store is always complete
+		 */
+		public void finish() {
+			File target = fileFor(size, seed);
+			File temp = new File(dir, target.getName() + ".tmp" + Thread.currentThread().threadId());
+			try {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(inputsKey);
+				out.writeInt(size);
+				out.writeLong(seed);
+				out.writeInt(samples);
+				out.writeInt(geneIds.size());
+				for (int i = 0; i < geneIds.size(); i++) {
+					out.writeUTF(geneIds.get(i));
+				}
+				out.writeInt(windows.size());
+				for (int i = 0; i < windows.size(); i++) {
+					int [] window = windows.get(i);
+					writeVarInt(out, window[0]);
+					writeVarInt(out, window[1]);
+					writeVarInt(out, window.length - 2);
+					int last = 0;
+					for (int j = 2; j < window.length; j++) {
+						writeVarInt(out, window[j] - last);
+						last = window[j];
+					}
+				}
+				out.close();
+				Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				e.printStackTrace();
+				temp.delete();
+			}
+		}
+	}
+	
+	private File dir;
+	private String inputsKey; // checksums of the genome and exonerate files
+	private int samples; // the number of samples of every distribution in the store
+	
+	/**
+	 * Constructor
+	 * @param storeDir the store directory. Created if it does not exist
+	 * @param genomeFile the genome in fasta format
+	 * @param exonerateFile the gff file created from mapping proteins to the genome with exonerate
+	 * @param sampleCount the number of samples of every distribution, part of the key of each file
+	 */
+	public SampleReplayStore(String storeDir, String genomeFile, String exonerateFile, int sampleCount) {
+		dir = new File(storeDir);
+		dir.mkdirs();
+		inputsKey = ResultCache.checksum(genomeFile) + "_" + ResultCache.checksum(exonerateFile);
+		samples = sampleCount;
+	}
+	
+	/**
+	 * Finds the file of one distribution
+	 * @param size the size of the samples
+	 * @param seed the seed of the run
+	 * @return the file in the store directory
+	 */
+	private File fileFor(int size, long seed) {
+		return new File(dir, inputsKey + "_" + size + "_" + seed + "_" + samples + ".windows");
+	}
+	
+	/**
+	 * Checks if a distribution is already in the store
+	 * @param size the size of the samples
+	 * @param seed the seed of the run
+	 * @return true if the windows of the distribution were written before with the same number of samples
+	 */
+	public boolean contains(int size, long seed) {
+		return fileFor(size, seed).isFile();
+	}
+	
+	/**
+	 * Starts recording the windows of a distribution
+	 * @param size the size of the samples
+	 * @param seed the seed of the run
+	 * @return the recording to add the windows to, in the order they were sampled
+	 */
+	public Recording startRecording(int size, long seed) {
+		return new Recording(size, seed);
+	}
+	
+	/**
+	 * Counts genes of interest again in the stored windows of a distribution
+	 * @param size the size of the samples
+	 * @param seed the seed of the run
+	 * @param gois the genes of interest to count
+	 * @param ags the loaded genome gff file, to tell which genes are genes of interest
+	 * @return the count of each gene of interest in every window, in the order the windows were sampled,
+	 * or null if the distribution is not in the store
+	 * @throws IOException if the stored file cannot be read or does not belong to these inputs
+	 */
+	public int[][] replay(int size, long seed, String[] gois, AnalyzeGOIInSample ags) throws IOException {
+		File file = fileFor(size, seed);
+		if (!file.isFile()) {
+			return null;
+		}
+		
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(inputsKey)
+					|| in.readInt() != size || in.readLong() != seed || in.readInt() != samples) {
+				throw new IOException("The replay store file " + file + " does not match its name");
+			}
+			
+			// Decide once per gene which genes of interest it is
+			int geneCount = in.readInt();
+			boolean [][] goiGene = new boolean[gois.length][geneCount];
+			for (int i = 0; i < geneCount; i++) {
+				String id = in.readUTF();
+				for (int g = 0; g < gois.length; g++) {
+					goiGene[g][i] = ags.isGOI(id, gois[g]);
+				}
+			}
+			
+			int windowCount = in.readInt();
+			int [][] counts = new int[gois.length][windowCount];
+			for (int i = 0; i < windowCount; i++) {
+				readVarInt(in); // chromosome
+				readVarInt(in); // start
+				int genes = readVarInt(in);
+				int gene = 0;
+				for (int j = 0; j < genes; j++) {
+					gene += readVarInt(in);
+					for (int g = 0; g < gois.length; g++) {
+						if (goiGene[g][gene]) {
+							counts[g][i]++;
+						}
+					}
+				}
+			}
+			return counts;
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Replays every variant for every gene of interest and writes <prefix>/results_<goi>.txt for each,
+	 * in the same format as a sampled run. Variants whose size is not in the store with the number of samples
+	 * of the store are written with 0 samples
+	 * @param variants the structural variants
+	 * @param seed the seed of the run that recorded the windows
+	 * @param gois the genes of interest to count
+	 * @param ags the loaded genome gff file
+	 * @param prefix the prefix (and directory) of the output files
+	 */
+	public void writeResults(ArrayList<SVSize> variants, long seed, String[] gois, AnalyzeGOIInSample ags, String prefix) {
+		new File(prefix).mkdir();
+		ResultsWriter [] results = new ResultsWriter[gois.length];
+		try {
+			for (int g = 0; g < gois.length; g++) {
+				results[g] = new ResultsWriter(prefix + "/results_" + gois[g] + ".txt", true, false, 1);
+			}
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+			return;
+		}
+		
+		for (int i = 0; i < variants.size(); i++) {
+			SVSize v = variants.get(i);
+			int [][] counts = null;
+			try {
+				counts = replay(v.getSize(), seed, gois, ags);
+			} catch (IOException e) {
+				System.err.println(e.getMessage());
+			}
+			if (counts == null) {
+				System.err.println("Variant " + v.getID() + " of size " + v.getSize() + " is not in the replay store with " + samples + " samples");
+				System.err.println("Skipping variant " + v.getID() + ", sorry 'bout it");
+			}
+			for (int g = 0; g < gois.length; g++) {
+				if (counts == null || counts[g].length == 0) {
+					results[g].write(i, i, v, 0, 0);
+					continue;
+				}
+				Arrays.sort(counts[g]);
+				int cutoff = counts[g][VariantAnalyzer.calculatePercentile(95.0, counts[g])];
+				results[g].write(i, i, v, cutoff, counts[g].length);
+			}
+		}
+		
+		for (int g = 0; g < gois.length; g++) {
+			results[g].close();
+		}
+	}
+	
+	/**
+	 * Writes a non-negative integer in 7 bit groups, low group first
+	 * @param out the stream to write to
+	 * @param value the value to write
+	 * @throws IOException if the stream cannot be written
+	 */
+	private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+	
+	/**
+	 * Reads an integer written by writeVarInt()
+	 * @param in the stream to read from
+	 * @return the value read
+	 * @throws IOException if the stream ends or cannot be read
+	 */
+	private static int readVarInt(DataInputStream in) throws IOException {
+		int value = 0;
+		int shift = 0;
+		int b = in.readUnsignedByte();
+		while ((b & 0x80) != 0) {
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+			b = in.readUnsignedByte();
+		}
+		return value | (b << shift);
+	}
+	
+} // end class SampleReplayStore
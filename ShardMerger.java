@@ -0,0 +1,121 @@
+/**
+ * Class to merge the partial results written by sharded runs of SVAnalysis
+ * back into a single results file in the order of the vcf file
+ * @author Stephen Pollo
+ */
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.Scanner;
+
+public class ShardMerger {
+	
+	// First field of the header line of every partial results file
+	public static final String HEADER = "#shard";
+	
+	public static void main(String[] args) {
+		
+		/*
+		 * Need: 1) the results file to write (usually <prefix>/results_<goi>.txt), 2+) the partial results files of every shard
+		 */
+		if (args.length < 2) {
+			usage();
+			return;
+		}
+		
+		String [] results = null;
+		
+		/*
+		 * Attempt to read the files provided.
+		 * Catch exceptions thrown if errors occur
+		 */
+		try {
+			for (int f = 1; f < args.length; f++) {
+				Scanner in = new Scanner(new File(args[f]));
+				String [] header = in.hasNextLine() ? in.nextLine().split("\t") : new String[0];
+				int total = header.length < 3 ? -1 : parseIndex(header[2]);
+				if (total < 0 || !header[0].equals(HEADER)) {
+					System.err.println(args[f] + " is not a shard results file");
+					in.close();
+					System.exit(1);
+				}
+				if (results == null) {
+					results = new String[total];
+				} else if (results.length != total) {
+					System.err.println(args[f] + " was made from a vcf file with " + total + " variants, expected " + results.length);
+					in.close();
+					System.exit(1);
+				}
+				
+				while (in.hasNextLine()) {
+					// The index is the first field, the rest of the line is the result as a single run writes it
+					String line = in.nextLine();
+					int tab = line.indexOf('\t');
+					int index = tab < 0 ? -1 : parseIndex(line.substring(0, tab));
+					if (index < 0 || index >= results.length) {
+						System.err.println(args[f] + " has a line that is not the result of one of its " + results.length + " variants: " + line);
+						in.close();
+						System.exit(1);
+					}
+					if (results[index] != null) {
+						System.err.println("Variant number " + index + " appears in more than one shard");
+						in.close();
+						System.exit(1);
+					}
+					results[index] = line.substring(line.indexOf('\t') + 1);
+				}
+				in.close();
+			}
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+		
+		// Every variant of the vcf file must have been processed by one of the shards
+		for (int i = 0; i < results.length; i++) {
+			if (results[i] == null) {
+				System.err.println("No shard processed variant number " + i + ", is a shard file missing?");
+				System.exit(1);
+			}
+		}
+		
+		try {
+			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(args[0])));
+			for (int i = 0; i < results.length; i++) {
+				out.write(results[i] + "\n");
+			}
+			out.close();
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	
+	} // end main
+	
+	/**
+	 * Parses a variant index or count of a shard results file
+	 * @param value the field of the file
+	 * @return the number, or -1 if the field is not a number of 0 or more
+	 */
+	private static int parseIndex(String value) {
+		try {
+			return Math.max(-1, Integer.parseInt(value));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * Usage message detailing required arguments
+	 */
+	public static void usage() {
+		System.out.println("You MUST provide the results file to write followed by "
+				+ "the partial results file of every shard");
+	}
+
+} // end class ShardMerger
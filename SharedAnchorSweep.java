@@ -0,0 +1,215 @@
+/**
+ * Class to find the distributions of a gene of interest for many structural variant sizes
+ * from one shared pool of random anchors (common random numbers). Each anchor is the start
+ * of a window that is grown through the sorted sizes, adding the genes of interest whose
+ * spans the window end moves past, so every size is counted in about one pass over the
+ * spans near the anchor. Neighbouring sizes are counted on the same windows, which makes
+ * their cutoffs directly comparable
+ *
+ * An anchor only counts towards the sizes that fit between it and the end of its contig.
+ * Anchors keep being drawn until every size has its samples, so each size is sampled
+ * uniformly over the starts where it fits, the same as GenomeSample.getRandomSample()
+ *
+ * A size only counts the anchors it fits on, so its distribution does not depend on the other
+ * sizes of the run. The sizes can therefore be run in blocks from the same anchors, holding the
+ * counts of one block at a time, with the same distributions as one run of every size
+ * @author Stephen Pollo
+ */
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+public class SharedAnchorSweep {
+	
+	public static final long MAX_BLOCK_COUNTS = 1L << 25; // counts a block holds at once, 128 MB
+	
+	private GenomeSample gs;
+	private ExonerateSpans spans;
+	private int [] spanChrOf; // ordinal among the spans of each chromosome of the genome, -1 if it has none
+	private boolean [] goiGene; // whether each gene of the spans is a gene of interest
+	private HashMap<Integer, int[]> dists = new HashMap<Integer, int[]>();
+	private HashMap<Integer, String> variantIds = new HashMap<Integer, String>(); // id of the first variant of each size
+	private long anchorCount = 0;
+	
+	/**
+	 * Constructor
+	 * @param genomeSample the loaded genome to place the anchors on
+	 * @param exonerateSpans the collapsed exonerate records to count overlaps in
+	 * @param analyze the loaded genome gff file, to tell which genes are genes of interest
+	 * @param goi the gene of interest
+	 */
+	public SharedAnchorSweep(GenomeSample genomeSample, ExonerateSpans exonerateSpans, AnalyzeGOIInSample analyze, String goi) {
+		gs = genomeSample;
+		spans = exonerateSpans;
+		
+		spanChrOf = new int[gs.getChrCount()];
+		for (int i = 0; i < spanChrOf.length; i++) {
+			spanChrOf[i] = spans.getChrOrdinal(gs.getChrName(i));
+		}
+		goiGene = new boolean[spans.getGeneCount()];
+		for (int i = 0; i < goiGene.length; i++) {
+			goiGene[i] = analyze.isGOI(spans.getGeneId(i), goi);
+		}
+	}
+	
+	/**
+	 * Finds the distinct sizes that fit on at least one contig
+	 * @param sizes the sizes of the structural variants, in any order and with repeats
+	 * @return the sizes, smallest first
+	 */
+	private int[] fittingSizes(int[] sizes) {
+		return Arrays.stream(sizes).distinct().filter(s -> s > 0 && s < gs.getLargestChrSize()).sorted().toArray();
+	}
+	
+	/**
+	 * Splits the sizes into blocks that each hold at most MAX_BLOCK_COUNTS counts when run.
+	 * Sizes that fit on no contig are left out
+	 * @param sizes the sizes of the structural variants, in any order and with repeats
+	 * @param samples the number of samples to take of each size
+	 * @return the distinct sizes of each block, smallest first
+	 */
+	public int[][] getBlocks(int[] sizes, int samples) {
+		int [] sorted = fittingSizes(sizes);
+		int perBlock = (int)Math.max(1, Math.min(Integer.MAX_VALUE, MAX_BLOCK_COUNTS / Math.max(1, samples)));
+		int [][] blocks = new int[(sorted.length + perBlock - 1) / perBlock][];
+		for (int b = 0; b < blocks.length; b++) {
+			blocks[b] = Arrays.copyOfRange(sorted, b * perBlock, Math.min(sorted.length, (b + 1) * perBlock));
+		}
+		return blocks;
+	}
+	
+	/**
+	 * Sets the variant ids the overlap queries of each size are recorded with
+	 * @param sizes the sizes of the structural variants
+	 * @param ids the id of the distribution of each variant, or null for variants that are not run
+	 */
+	public void setVariantIds(int[] sizes, String[] ids) {
+		variantIds.clear();
+		for (int i = 0; i < sizes.length; i++) {
+			if (ids[i] != null) {
+				variantIds.putIfAbsent(sizes[i], ids[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Finds the distribution of every size from one pool of anchors, replacing the distributions of the last run
+	 * @param sizes the sizes of the structural variants, in any order and with repeats
+	 * @param samples the number of samples to take of each size
+	 * @param rand the random number generator to draw the anchors from
+	 */
+	public void run(int[] sizes, int samples, Random rand) {
+		dists.clear();
+		anchorCount = 0;
+		
+		// Distinct sizes that fit on at least one contig, smallest first
+		int [] sorted = fittingSizes(sizes);
+		int [][] counts = new int[sorted.length][samples];
+		int [] filled = new int[sorted.length];
+		
+		// Every anchor a size fits on also fits every smaller size, so the sizes fill up smallest first
+		int [] geneStamp = new int[goiGene.length];
+		int stamp = 0;
+		int lowest = 0;
+		while (lowest < sorted.length && samples > 0) {
+			int [] anchor = gs.getRandomAnchor(rand);
+			anchorCount++;
+			int start = anchor[1];
+			int room = anchor[2];
+			if (sorted[lowest] > room) {
+				continue;
+			}
+			
+			PipelineEvents.OverlapQueryEvent event = new PipelineEvents.OverlapQueryEvent();
+			event.begin();
+			int chr = spanChrOf[anchor[0]];
+			stamp++;
+			int count = 0;
+			int next = 0;
+			int end = 0;
+			int first = 0;
+			if (chr >= 0) {
+				// Spans starting at or before the window start that reach past it overlap every window of the anchor
+				next = spans.findFirstSpanAfter(chr, start);
+				end = spans.getEndSpan(chr);
+				for (int j = next - 1; j >= spans.getFirstSpan(chr) && spans.getSpanMaxEnd(j) > start; j--) {
+					if (spans.getSpanEnd(j) > start) {
+						count += addGene(spans.getSpanGene(j), geneStamp, stamp);
+					}
+				}
+				first = next;
+			}
+			
+			int k = lowest;
+			for (; k < sorted.length && sorted[k] <= room; k++) {
+				// The window covers [start, start + size) as a bed interval, so a span overlaps once its start - 1 is below the window end
+				int windowEnd = start + sorted[k];
+				while (next < end && spans.getSpanStart(next) - 1 < windowEnd) {
+					count += addGene(spans.getSpanGene(next), geneStamp, stamp);
+					next++;
+				}
+				if (filled[k] < samples) {
+					counts[k][filled[k]] = count;
+					filled[k]++;
+				}
+			}
+			event.end();
+			if (event.shouldCommit()) {
+				// One query for all the sizes of the anchor, reported for the largest window
+				event.variantId = variantIds.get(sorted[k - 1]);
+				event.sampleIndex = (int)Math.min(Integer.MAX_VALUE, anchorCount - 1);
+				event.chr = gs.getChrName(anchor[0]);
+				event.start = start;
+				event.end = start + sorted[k - 1];
+				event.records = next - first;
+				event.commit();
+			}
+			
+			while (lowest < sorted.length && filled[lowest] == samples) {
+				lowest++;
+			}
+		}
+		
+		for (int k = 0; k < sorted.length; k++) {
+			dists.put(sorted[k], counts[k]);
+		}
+	}
+	
+	/**
+	 * Marks a gene as found in the current window
+	 * @param gene the ordinal of the gene
+	 * @param geneStamp the anchor each gene was last found in
+	 * @param stamp the current anchor
+	 * @return 1 if the gene is a gene of interest not found in the window before, otherwise 0
+	 */
+	private int addGene(int gene, int[] geneStamp, int stamp) {
+		if (geneStamp[gene] == stamp) {
+			return 0;
+		}
+		geneStamp[gene] = stamp;
+		return goiGene[gene] ? 1 : 0;
+	}
+	
+	/**
+	 * Getter for the distribution of one size from the last run
+	 * @param size the size of the structural variant
+	 * @return a copy of the count of the gene of interest in every sample, or null if the size was not run or cannot be sampled
+	 */
+	public int[] getDist(int size) {
+		int [] dist = dists.get(size);
+		if (dist == null) {
+			return null;
+		}
+		return dist.clone();
+	}
+	
+	/**
+	 * Getter for the number of anchors drawn by the last run, including those no size fit on
+	 * @return the number of anchors
+	 */
+	public long getAnchorCount() {
+		return anchorCount;
+	}
+	
+} // end class SharedAnchorSweep
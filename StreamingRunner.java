@@ -0,0 +1,139 @@
+/**
+ * Class to run the sampling experiment on a vcf file without reading the whole file first.
+ * Variants are parsed, sampled and written to the results file as they go, and only a
+ * bounded number of them are in flight at any time, so memory does not grow with the
+ * number of variants in the vcf file
+ * @author Stephen Pollo
+ */
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+public class StreamingRunner {
+	
+	private GenomeSample gs;
+	private BedtoolsWrapper bw;
+	private AnalyzeGOIInSample ags;
+	private ResultCache cache;
+	private Long seed;
+	private boolean vcfOrder = true;
+	private int flushEvery = 1;
+	
+	/**
+	 * Constructor
+	 * @param genomeSample the loaded genome to sample from
+	 * @param exonerateFile path to the gff file created from mapping proteins to the genome with exonerate
+	 * @param analyze the loaded genome gff file
+	 * @param resultCache the cache of distributions already sampled against the same inputs, or null to sample every variant
+	 * @param runSeed the seed of the run, or null to sample without one
+	 */
+	public StreamingRunner(GenomeSample genomeSample, String exonerateFile, AnalyzeGOIInSample analyze, ResultCache resultCache, Long runSeed) {
+		gs = genomeSample;
+		// The wrapper and gff file are shared by every worker, each distribution keeps its own result lists
+		bw = new BedtoolsWrapper(exonerateFile);
+		ags = analyze;
+		cache = resultCache;
+		seed = runSeed;
+	}
+	
+	/**
+	 * Sets how the results file is written
+	 * @param inVcfOrder true to write the variants in vcf order, false to write them as they finish
+	 * @param linesPerFlush the number of lines to write before flushing the results file
+	 */
+	public void setResultsOptions(boolean inVcfOrder, int linesPerFlush) {
+		vcfOrder = inVcfOrder;
+		flushEvery = linesPerFlush;
+	}
+	
+	/**
+	 * Streams the variants of a vcf file through the sampling experiment
+	 * @param vcfFile the vcf file of called structural variants
+	 * @param goi the gene of interest
+	 * @param prefix the prefix (and directory) of the output files
+	 * @param threads the number of variants to sample at the same time
+	 * @param maxInFlight the most variants that may be read but not yet written, at least threads
+	 * @return the file the results were written to, or null if it could not be created
+	 */
+	public String run(String vcfFile, String goi, String prefix, int threads, int maxInFlight) {
+		new File(prefix).mkdir();
+		gs.writeIndexLog(SVAnalysis.logPrefix(prefix) + "_genome_index.txt");
+		ags.writeGffLog(SVAnalysis.logPrefix(prefix) + "_gff_treemap.txt");
+		
+		String resultsFile = prefix + "/results_" + goi + ".txt";
+		ResultsWriter results;
+		try {
+			results = new ResultsWriter(resultsFile, vcfOrder, false, flushEvery);
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+			return null;
+		}
+		
+		// A permit is taken when a variant is read and given back once its line is written to the file,
+		// so in vcf order the lines held back behind a slow variant count against the limit too
+		Semaphore inFlight = new Semaphore(Math.max(threads, maxInFlight));
+		results.setLineWritten(inFlight::release);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		VariantStream variants = new VariantStream(vcfFile);
+		HashSet<String> contigs = new HashSet<String>();
+		
+		try {
+			while (variants.hasNext()) {
+				int index = variants.getNextIndex();
+				SVSize v = variants.next();
+				if (v.getChr() != null) {
+					contigs.add(v.getChr());
+				}
+				inFlight.acquire();
+				pool.execute(() -> analyzeVariant(v, index, goi, prefix, results));
+			}
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			pool.shutdownNow();
+		}
+		
+		variants.close();
+		results.close();
+		gs.getContigs().reportUnknown("vcf file", contigs);
+		return resultsFile;
+	}
+	
+	/**
+	 * Samples one variant on the current worker thread and writes its result.
+	 * A variant that fails is written with 0 samples, so every variant read gives back its permit
+	 * @param v the structural variant
+	 * @param index the index of the variant in the vcf file
+	 * @param goi the gene of interest
+	 * @param prefix the prefix (and directory) of the output files
+	 * @param results the writer of the results file
+	 */
+	private void analyzeVariant(SVSize v, int index, String goi, String prefix, ResultsWriter results) {
+		String logPrefix = SVAnalysis.logPrefix(prefix);
+		GetDistOfGOI dist = new GetDistOfGOI(gs, bw, ags, logPrefix, false);
+		VariantAnalyzer va = new VariantAnalyzer(new ArrayList<SVSize>(), dist, logPrefix);
+		if (seed != null) {
+			va.setSeed(seed);
+		}
+		va.setCache(cache);
+		
+		int cutoff;
+		try {
+			cutoff = va.analyzeVariant(v, goi);
+		} catch (RuntimeException e) {
+			System.err.println(e);
+			System.err.println("Skipping variant " + v.getID() + ", sorry 'bout it");
+			results.write(index, index, v, 0, 0);
+			return;
+		}
+		results.write(index, index, v, cutoff, va.getLastSampleCount());
+	}
+	
+} // end class StreamingRunner
@@ -0,0 +1,307 @@
+/**
+ * Class to generate a synthetic set of inputs for the experiment: a genome in fasta format, an
+ * exonerate mapping file, a reference gff file with gene descriptions and a Sniffles style vcf file
+ * of structural variants. Nothing is read from real assemblies, so the files can be used to test and
+ * benchmark the pipeline anywhere
+ *
+ * Contig lengths are log-normal around the mean length. Genes are placed along each contig with
+ * exponential gaps and mapped as 1 to 4 cds records each; a fraction of them are genes of interest,
+ * which tend to sit in tandem arrays the way multigene families do. Variant sizes follow the shape of
+ * long read calls: a peak at Alu insertions and deletions near 300 bp, a smaller peak at full length
+ * LINEs near 6 kb and a log-normal body reaching into the hundreds of kb
+ * @author Stephen Pollo
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+public class SyntheticData {
+	
+	public static final String GENOME_FILE = "genome.fa";
+	public static final String EXONERATE_FILE = "exonerate.gff";
+	public static final String REFERENCE_FILE = "reference.gff";
+	public static final String VCF_FILE = "variants.vcf";
+	
+	public static final int MIN_CONTIG_LENGTH = 20000;
+	public static final int LINE_LENGTH = 80;
+	private static final String [] DESCRIPTIONS = {"hypothetical protein", "kinesin", "ABC transporter",
+			"cysteine protease", "ribosomal protein L7", "tubulin beta chain", "heat shock protein 70"};
+	private static final byte [] BASES = {'A', 'C', 'G', 'T'};
+	
+	private Random rand;
+	private int contigCount = 20;
+	private int meanContigLength = 500000;
+	private double genesPerMb = 200;
+	private double goiFraction = 0.03;
+	private String goi = "VSP";
+	private int variantCount = 100;
+	private int [] contigLengths;
+	
+	/**
+	 * Constructor
+	 * @param seed the seed of the generator, the same seed and settings always give the same files
+	 */
+	public SyntheticData(long seed) {
+		rand = new Random(seed);
+	}
+	
+	/**
+	 * Sets the number and size of the contigs of the genome
+	 * @param count the number of contigs
+	 * @param meanLength the mean length of a contig, at least MIN_CONTIG_LENGTH
+	 */
+	public void setContigs(int count, int meanLength) {
+		if (count < 1 || meanLength < MIN_CONTIG_LENGTH) {
+			throw new IllegalArgumentException("At least one contig of mean length " + MIN_CONTIG_LENGTH + " or more is needed");
+		}
+		contigCount = count;
+		meanContigLength = meanLength;
+	}
+	
+	/**
+	 * Sets how genes are placed on the genome
+	 * @param perMb the mean number of genes per megabase
+	 * @param fraction the fraction of genes that are genes of interest
+	 * @param geneOfInterest the description given to the genes of interest
+	 */
+	public void setGenes(double perMb, double fraction, String geneOfInterest) {
+		genesPerMb = perMb;
+		goiFraction = fraction;
+		goi = geneOfInterest;
+	}
+	
+	/**
+	 * Sets the number of structural variants to call
+	 * @param count the number of variants
+	 */
+	public void setVariants(int count) {
+		variantCount = count;
+	}
+	
+	/**
+	 * Generates every file in a directory, named GENOME_FILE, EXONERATE_FILE, REFERENCE_FILE and VCF_FILE
+	 * @param dir the directory to write the files to. Created if it does not exist
+	 * @throws IOException if a file cannot be written
+	 */
+	public void write(String dir) throws IOException {
+		new File(dir).mkdirs();
+		
+		// Long total genomes would overflow the int coordinates of GenomeSample
+		contigLengths = new int[contigCount];
+		long total = 0;
+		for (int i = 0; i < contigCount; i++) {
+			double length = meanContigLength * Math.exp(0.5 * rand.nextGaussian() - 0.125);
+			contigLengths[i] = (int)Math.max(MIN_CONTIG_LENGTH, Math.min(length, Integer.MAX_VALUE / (2L * contigCount)));
+			total += contigLengths[i];
+		}
+		
+		writeGenome(new File(dir, GENOME_FILE));
+		writeGenes(new File(dir, EXONERATE_FILE), new File(dir, REFERENCE_FILE));
+		writeVariants(new File(dir, VCF_FILE));
+		System.err.println("Wrote " + contigCount + " contigs of " + total + " bases and " + variantCount + " variants to " + dir);
+	}
+	
+	/**
+	 * Writes random bases for every contig
+	 * @param file the fasta file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	private void writeGenome(File file) throws IOException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+		byte [] line = new byte[LINE_LENGTH + 1];
+		for (int c = 0; c < contigCount; c++) {
+			out.write((">" + contigName(c) + "\n").getBytes());
+			int left = contigLengths[c];
+			while (left > 0) {
+				int n = Math.min(LINE_LENGTH, left);
+				// One random int gives 16 bases
+				for (int i = 0; i < n; i += 16) {
+					int bits = rand.nextInt();
+					for (int j = i; j < Math.min(i + 16, n); j++) {
+						line[j] = BASES[bits & 3];
+						bits >>>= 2;
+					}
+				}
+				line[n] = '\n';
+				out.write(line, 0, n + 1);
+				left -= n;
+			}
+		}
+		out.close();
+	}
+	
+	/**
+	 * Places the genes, writing the cds records of each to the exonerate file and its description to the reference gff file
+	 * @param exonerateFile the exonerate mapping file to write
+	 * @param referenceFile the reference gff file to write
+	 * @throws IOException if a file cannot be written
+	 */
+	private void writeGenes(File exonerateFile, File referenceFile) throws IOException {
+		BufferedWriter exo = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(exonerateFile)));
+		BufferedWriter ref = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(referenceFile)));
+		ref.write("##gff-version 3\n");
+		
+		double meanGap = 1000000.0 / genesPerMb;
+		int gene = 0;
+		for (int c = 0; c < contigCount; c++) {
+			String chr = contigName(c);
+			int pos = 1 + (int)(-Math.log(1 - rand.nextDouble()) * meanGap);
+			boolean lastWasGoi = false;
+			while (true) {
+				int length = 1000 + rand.nextInt(7000);
+				if (pos + length >= contigLengths[c]) {
+					break;
+				}
+				gene++;
+				String id = "g" + gene;
+				
+				// Genes of interest are more likely right after another one
+				boolean isGoi = rand.nextDouble() < (lastWasGoi ? 0.5 : goiFraction);
+				String desc = isGoi ? goi + " protein" : DESCRIPTIONS[rand.nextInt(DESCRIPTIONS.length)];
+				ref.write(chr + "\tsynthetic\tgene\t" + pos + "\t" + (pos + length - 1) + "\t.\t+\t.\tID=" + id + ";Name=" + id + ";description=" + desc + "\n");
+				
+				// Split the gene into exons separated by introns of at least 50 bases
+				int exons = 1 + rand.nextInt(4);
+				int exonLength = length / exons;
+				for (int e = 0; e < exons; e++) {
+					int start = pos + e * exonLength;
+					int end = start + exonLength - 1 - (e < exons - 1 ? 50 + rand.nextInt(Math.max(1, exonLength / 4)) : 0);
+					exo.write(chr + "\texonerate:protein2genome:local\tcds\t" + start + "\t" + Math.max(start, end) + "\t"
+							+ (100 + rand.nextInt(900)) + "\t+\t.\tQuery sequence " + id + AnalyzeGOIInSample.ID_END + " ; Align " + (e + 1) + "\n");
+				}
+				
+				lastWasGoi = isGoi;
+				pos += length + (isGoi ? 200 + rand.nextInt(2000) : 1 + (int)(-Math.log(1 - rand.nextDouble()) * meanGap));
+			}
+		}
+		exo.close();
+		ref.close();
+	}
+	
+	/**
+	 * Calls structural variants at random positions with sizes drawn from the size distribution
+	 * @param file the vcf file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	private void writeVariants(File file) throws IOException {
+		BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file)));
+		out.write("##fileformat=VCFv4.2\n");
+		out.write("##source=SyntheticData\n");
+		for (int c = 0; c < contigCount; c++) {
+			out.write("##contig=<ID=" + contigName(c) + ",length=" + contigLengths[c] + ">\n");
+		}
+		out.write("##INFO=<ID=SVTYPE,Number=1,Type=String,Description=\"Type of structural variant\">\n");
+		out.write("##INFO=<ID=SVLEN,Number=1,Type=Integer,Description=\"Length of the SV\">\n");
+		out.write("##INFO=<ID=END,Number=1,Type=Integer,Description=\"End position of the structural variant\">\n");
+		out.write("##INFO=<ID=RE,Number=1,Type=Integer,Description=\"Number of reads supporting the variant\">\n");
+		out.write("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n");
+		out.write("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tsample\n");
+		
+		// Variants are called in position order along the contigs, weighted by contig length
+		long total = 0;
+		for (int c = 0; c < contigCount; c++) {
+			total += contigLengths[c];
+		}
+		HashMap<Integer, ArrayList<int[]>> calls = new HashMap<Integer, ArrayList<int[]>>();
+		for (int i = 0; i < variantCount; i++) {
+			long r = (long)(rand.nextDouble() * total);
+			int c = 0;
+			while (r >= contigLengths[c]) {
+				r -= contigLengths[c];
+				c++;
+			}
+			int [] call = {(int)r + 1, drawSize(contigLengths[c]), rand.nextInt(100)};
+			calls.computeIfAbsent(c, k -> new ArrayList<int[]>()).add(call);
+		}
+		
+		int id = 0;
+		for (int c = 0; c < contigCount; c++) {
+			ArrayList<int[]> list = calls.get(c);
+			if (list == null) {
+				continue;
+			}
+			list.sort((a, b) -> Integer.compare(a[0], b[0]));
+			for (int i = 0; i < list.size(); i++) {
+				int pos = list.get(i)[0];
+				int size = list.get(i)[1];
+				int kind = list.get(i)[2];
+				String type = kind < 50 ? "DEL" : kind < 90 ? "INS" : kind < 95 ? "DUP" : "INV";
+				int svlen = type.equals("DEL") ? -size : size;
+				int end = type.equals("INS") ? pos : Math.min(contigLengths[c], pos + size);
+				int support = 3 + rand.nextInt(30);
+				out.write(contigName(c) + "\t" + pos + "\t" + id + "\tN\t<" + type + ">\t.\tPASS\tPRECISE;SVMETHOD=Snifflesv1.0.12;CHR2="
+						+ contigName(c) + ";END=" + end + ";SVTYPE=" + type + ";SVLEN=" + svlen + ";RE=" + support
+						+ "\tGT\t" + (rand.nextBoolean() ? "0/1" : "1/1") + "\n");
+				id++;
+			}
+		}
+		out.close();
+	}
+	
+	/**
+	 * Draws the size of a structural variant
+	 * @param contigLength the length of the contig the variant is on, which the size must fit in
+	 * @return the size, at least 50 bases
+	 */
+	private int drawSize(int contigLength) {
+		double u = rand.nextDouble();
+		double size;
+		if (u < 0.35) {
+			size = 300 + 15 * rand.nextGaussian();
+		} else if (u < 0.40) {
+			size = 6000 + 400 * rand.nextGaussian();
+		} else {
+			size = Math.exp(Math.log(800) + 1.6 * rand.nextGaussian());
+		}
+		return (int)Math.max(50, Math.min(size, contigLength - 1));
+	}
+	
+	/**
+	 * Builds the name of a contig
+	 * @param c the ordinal of the contig
+	 * @return the name of the contig
+	 */
+	private static String contigName(int c) {
+		return "contig_" + (c + 1);
+	}
+	
+	/**
+	 * Usage message detailing required arguments
+	 */
+	public static void usage() {
+		System.out.println("You MUST provide the directory to write the synthetic inputs to\n"
+				+ "Options: --seed <number> (default 1), --contigs <n> (default 20), --contig-length <mean bases> (default 500000), "
+				+ "--genes-per-mb <n> (default 200), --goi-fraction <fraction> (default 0.03), --goi <name> (default VSP), "
+				+ "--variants <n> (default 100)");
+	}
+	
+	public static void main(String[] args) {
+		HashMap<String, String> options = new HashMap<String, String>();
+		ArrayList<String> positional = SVAnalysis.parseOptions(args, options);
+		if (positional == null || positional.size() != 1) {
+			usage();
+			return;
+		}
+		
+		SyntheticData data = new SyntheticData(Long.parseLong(options.getOrDefault("seed", "1")));
+		data.setContigs(Integer.parseInt(options.getOrDefault("contigs", "20")), Integer.parseInt(options.getOrDefault("contig-length", "500000")));
+		data.setGenes(Double.parseDouble(options.getOrDefault("genes-per-mb", "200")), Double.parseDouble(options.getOrDefault("goi-fraction", "0.03")),
+				options.getOrDefault("goi", "VSP"));
+		data.setVariants(Integer.parseInt(options.getOrDefault("variants", "100")));
+		try {
+			data.write(positional.get(0));
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	} // end main
+	
+} // end class SyntheticData
@@ -0,0 +1,209 @@
+/**
+ * Class to benchmark the whole pipeline on synthetic inputs at several scales, so changes that
+ * slow the experiment down as the inputs grow show up without any real data. Each scale generates
+ * its own inputs with SyntheticData and runs SVAnalysis on them in a separate java process
+ *
+ * For every scale the variants per second, samples per second, peak resident memory of the run and
+ * the time until the first results line was written are printed and appended to benchmark.tsv in the
+ * work directory. Peak memory is read from /proc, so it is only reported on Linux
+ * @author Stephen Pollo
+ */
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+public class ThroughputBenchmark {
+	
+	public static final long POLL_MILLIS = 50;
+	
+	private String workDir;
+	private int samples = 1000;
+	private ArrayList<String> extraArgs = new ArrayList<String>();
+	
+	/**
+	 * Constructor
+	 * @param dir the directory to generate the inputs and run the experiments in
+	 */
+	public ThroughputBenchmark(String dir) {
+		workDir = dir;
+		new File(workDir).mkdirs();
+	}
+	
+	/**
+	 * Sets the number of samples taken of each variant
+	 * @param samplesPerVariant the number of samples
+	 */
+	public void setSamples(int samplesPerVariant) {
+		samples = samplesPerVariant;
+	}
+	
+	/**
+	 * Sets options passed on to every SVAnalysis run, such as --shared-anchors
+	 * @param args the extra command line arguments
+	 */
+	public void setExtraArgs(List<String> args) {
+		extraArgs = new ArrayList<String>(args);
+	}
+	
+	/**
+	 * Generates the inputs of one scale and runs the experiment on them
+	 * @param scale the scale. Contigs and variants both grow linearly with it
+	 * @return the measurements: scale, variants, samples, seconds, variants per second, samples per second,
+	 * peak resident memory in MB (-1 if unknown) and seconds to the first result (-1 if none), tab delimited
+	 * @throws IOException if the inputs cannot be written or the run cannot be started
+	 * @throws InterruptedException if interrupted while waiting for the run
+	 */
+	public String runScale(int scale) throws IOException, InterruptedException {
+		String dataDir = workDir + "/scale_" + scale;
+		SyntheticData data = new SyntheticData(scale);
+		data.setContigs(10 * scale, 500000);
+		data.setVariants(20 * scale);
+		data.write(dataDir);
+		
+		// The prefix is relative, so the run works in the data directory
+		String prefix = "bench";
+		File results = new File(dataDir + "/" + prefix + "/results_VSP.txt");
+		results.delete();
+		ArrayList<String> command = new ArrayList<String>(Arrays.asList(
+				new File(System.getProperty("java.home"), "bin/java").getPath(), "-cp", absoluteClassPath(),
+				"SVAnalysis", SyntheticData.GENOME_FILE, SyntheticData.EXONERATE_FILE, SyntheticData.REFERENCE_FILE, SyntheticData.VCF_FILE, prefix,
+				"--seed", "1", "--samples", Integer.toString(samples)));
+		command.addAll(extraArgs);
+		ProcessBuilder pb = new ProcessBuilder(command);
+		pb.directory(new File(dataDir));
+		pb.redirectErrorStream(true);
+		pb.redirectOutput(new File(dataDir + "/bench.log"));
+		
+		long startTime = System.nanoTime();
+		Process p = pb.start();
+		Path status = Path.of("/proc/" + p.pid() + "/status");
+		long peakKb = -1;
+		long firstResult = -1;
+		while (p.isAlive()) {
+			// The high water mark only grows, so the last read before the process exits is the peak
+			peakKb = Math.max(peakKb, readHighWaterMark(status));
+			if (firstResult < 0 && results.length() > 0) {
+				firstResult = System.nanoTime() - startTime;
+			}
+			Thread.sleep(POLL_MILLIS);
+		}
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		if (p.exitValue() != 0) {
+			throw new IOException("SVAnalysis exited with " + p.exitValue() + ", see " + dataDir + "/bench.log");
+		}
+		if (firstResult < 0 && results.length() > 0) {
+			firstResult = System.nanoTime() - startTime;
+		}
+		
+		// Columns of a results line are the id, size, cutoff and number of samples
+		int variants = 0;
+		long sampled = 0;
+		if (results.exists()) {
+			List<String> lines = Files.readAllLines(results.toPath());
+			for (int i = 0; i < lines.size(); i++) {
+				String [] vals = lines.get(i).split("\t");
+				if (vals.length >= 4) {
+					variants++;
+					sampled += Long.parseLong(vals[3]);
+				}
+			}
+		}
+		
+		return scale + "\t" + variants + "\t" + sampled + "\t" + String.format("%.2f", seconds) + "\t"
+				+ String.format("%.2f", variants / seconds) + "\t" + String.format("%.0f", sampled / seconds) + "\t"
+				+ (peakKb < 0 ? "-1" : String.format("%.1f", peakKb / 1024.0)) + "\t"
+				+ (firstResult < 0 ? "-1" : String.format("%.2f", firstResult / 1e9));
+	}
+	
+	/**
+	 * Builds the class path of this process with every entry made absolute, for runs in another directory
+	 * @return the class path
+	 */
+	private static String absoluteClassPath() {
+		String [] entries = System.getProperty("java.class.path").split(File.pathSeparator);
+		for (int i = 0; i < entries.length; i++) {
+			entries[i] = new File(entries[i]).getAbsolutePath();
+		}
+		return String.join(File.pathSeparator, entries);
+	}
+	
+	/**
+	 * Reads the peak resident memory of a process
+	 * @param status the /proc status file of the process
+	 * @return the peak resident memory in kB, or -1 if it cannot be read
+	 */
+	private static long readHighWaterMark(Path status) {
+		try {
+			List<String> lines = Files.readAllLines(status);
+			for (int i = 0; i < lines.size(); i++) {
+				if (lines.get(i).startsWith("VmHWM:")) {
+					return Long.parseLong(lines.get(i).substring(6).replace("kB", "").trim());
+				}
+			}
+		} catch (IOException | NumberFormatException e) {
+			// Not on Linux, or the process just exited
+		}
+		return -1;
+	}
+	
+	/**
+	 * Usage message detailing required arguments
+	 */
+	public static void usage() {
+		System.out.println("You MUST provide the work directory to generate the synthetic inputs and run the benchmark in\n"
+				+ "Options: --scales <n>[,<n>...] (default 1,2,4) where each scale has 10 contigs of about 500 kb and 20 variants per unit, "
+				+ "--samples <n> (default 1000) samples per variant, --args \"<options>\" passed on to every SVAnalysis run\n"
+				+ "Needs bedtools on the path unless the options passed on count the overlaps in memory");
+	}
+	
+	public static void main(String[] args) {
+		HashMap<String, String> options = new HashMap<String, String>();
+		ArrayList<String> positional = SVAnalysis.parseOptions(args, options);
+		if (positional == null || positional.size() != 1) {
+			usage();
+			return;
+		}
+		
+		ThroughputBenchmark bench = new ThroughputBenchmark(positional.get(0));
+		if (options.containsKey("samples")) {
+			bench.setSamples(Integer.parseInt(options.get("samples")));
+		}
+		if (options.containsKey("args")) {
+			bench.setExtraArgs(Arrays.asList(options.get("args").trim().split("\\s+")));
+		}
+		String [] scales = options.getOrDefault("scales", "1,2,4").split(",");
+		
+		String header = "#scale\tvariants\tsamples\tseconds\tvariants_per_sec\tsamples_per_sec\tpeak_rss_mb\tfirst_result_sec";
+		System.out.println(header);
+		try {
+			File report = new File(positional.get(0), "benchmark.tsv");
+			boolean newReport = !report.exists();
+			BufferedWriter out = new BufferedWriter(new FileWriter(report, true));
+			if (newReport) {
+				out.write(header + "\n");
+			}
+			for (int i = 0; i < scales.length; i++) {
+				String line = bench.runScale(Integer.parseInt(scales[i]));
+				System.out.println(line);
+				out.write(line + "\n");
+				out.flush();
+			}
+			out.close();
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			System.exit(1);
+		}
+	} // end main
+	
+} // end class ThroughputBenchmark
@@ -6,6 +6,7 @@
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Random;
 
 public class VariantAnalyzer {
 
@@ -13,7 +14,24 @@ public class VariantAnalyzer {
 	private GetDistOfGOI dist;
 	private ArrayList<SVSize> variants;
 	private ArrayList<Integer> cutoffs;
+	private ArrayList<Integer> processed;
 	private String p;
+	private long seed;
+	private boolean seeded = false;
+	private int shardIndex = 0;
+	private int shardCount = 1;
+	private ResultCache cache = null;
+	private ResultsWriter resultsWriter = null;
+	private int lastSampleCount = 0;
+	private AggregateTest aggregate = null;
+	private SharedAnchorSweep sweep = null;
+	private String lastSpread = null;
+	private SampleReplayStore replayStore = null;
+	private CountMatrixWriter countMatrix = null;
+	private int [] observedCounts = null;
+	private String lastObserved = null;
+	private int observedTotal = 0; // the observed counts of the variants added to the aggregate test
+	private boolean observedTotalKnown = true;
 	
 	/**
 	 * Main constructor
@@ -21,10 +39,21 @@ public class VariantAnalyzer {
 	 * @param getDist the GetDistOfGOI object that will be used to find the distribution of the gene of interest
 	 */
 	public VariantAnalyzer(VariantReader reader, GetDistOfGOI getDist, String prefix) {
+		this(reader.getVariants(), getDist, prefix);
 		vr = reader;
+	}
+	
+	/**
+	 * Constructor for variants that were already read
+	 * @param variantList the structural variants to analyze
+	 * @param getDist the GetDistOfGOI object that will be used to find the distribution of the gene of interest
+	 * @param prefix the prefix of the output files
+	 */
+	public VariantAnalyzer(ArrayList<SVSize> variantList, GetDistOfGOI getDist, String prefix) {
 		dist = getDist;
-		variants = vr.getVariants();
+		variants = variantList;
 		cutoffs = new ArrayList<Integer>();
+		processed = new ArrayList<Integer>();
 		p = prefix;
 	}
 	
@@ -34,24 +63,261 @@ public class VariantAnalyzer {
 	 */
 	public void runExperiment(String goi) {
 		cutoffs.clear();
+		processed.clear();
+		observedTotal = 0;
+		observedTotalKnown = true;
+		
+		if (sweep != null) {
+			runSweptExperiment(goi);
+			return;
+		}
 		
 		for (int i = 0; i < variants.size(); i++) {
-			int [] goiDist = null;
-			try {
-			goiDist = dist.getDist(variants.get(i).getSize(), goi, "var_" + variants.get(i).getID() + "_" + variants.get(i).getSize() + "_" + goi);
-			} catch (IllegalArgumentException e) {
-				System.err.println(e);
-				System.err.println("Variant " + variants.get(i).getID() + " has a size that cannot be sampled");
-				System.err.println("Skipping variant " + variants.get(i).getID() + ", sorry 'bout it");
-				cutoffs.add(0);
+			if (i % shardCount != shardIndex) {
+				// Variant belongs to another shard
 				continue;
 			}
-			Arrays.sort(goiDist);
-			int index95 = calculatePercentile(95.0, goiDist);
-			int cutoffVal95 = goiDist[index95];
-			cutoffs.add(cutoffVal95);
-			dist.writeSampleList(p + "_var_" + variants.get(i).getID() + "_" + variants.get(i).getSize() + "_" + goi + "_samples.txt");
+			analyzeAndWrite(i, processed.size(), goi);
+		}
+	}
+	
+	/**
+	 * Method to find the distributions of the variants of this shard from the shared anchors of the sweep,
+	 * one block of sizes at a time so only the distributions of one block are held at once. Every block
+	 * starts again from the same anchors. The variants of a block are analyzed as soon as it is run, and the
+	 * results writer puts them back in vcf order
+	 * @param goi the gene of interest
+	 */
+	private void runSweptExperiment(String goi) {
+		int [] sizes = new int[variants.size()];
+		String [] ids = new String[variants.size()];
+		for (int i = 0; i < variants.size(); i++) {
+			if (i % shardCount == shardIndex) {
+				SVSize v = variants.get(i);
+				sizes[i] = v.getSize();
+				ids[i] = "var_" + v.getID() + "_" + v.getSize() + "_" + goi;
+			}
+		}
+		sweep.setVariantIds(sizes, ids);
+		int [][] blocks = sweep.getBlocks(sizes, dist.NUMBER_OF_SAMPLES);
+		long anchorSeed = seeded ? seed : new Random().nextLong();
+		long anchors = 0;
+		
+		for (int b = 0; b < Math.max(1, blocks.length); b++) {
+			int [] block = b < blocks.length ? blocks[b] : new int[0];
+			sweep.run(block, dist.NUMBER_OF_SAMPLES, new Random(anchorSeed));
+			anchors = Math.max(anchors, sweep.getAnchorCount());
+			
+			int seq = 0;
+			for (int i = 0; i < variants.size(); i++) {
+				if (i % shardCount != shardIndex) {
+					continue;
+				}
+				// Sizes in no block cannot be sampled, they are reported with the first block
+				int size = variants.get(i).getSize();
+				boolean inBlock = Arrays.binarySearch(block, size) >= 0;
+				if (inBlock || (b == 0 && !inAnyBlock(blocks, size))) {
+					analyzeAndWrite(i, seq, goi);
+				}
+				seq++;
+			}
+		}
+		System.err.println("Sampled every size from " + anchors + " shared anchors in " + blocks.length + " blocks");
+	}
+	
+	/**
+	 * Checks if a size is in one of the blocks of a sweep
+	 * @param blocks the sorted sizes of each block
+	 * @param size the size of the structural variant
+	 * @return true if a block holds the size
+	 */
+	private static boolean inAnyBlock(int[][] blocks, int size) {
+		for (int b = 0; b < blocks.length; b++) {
+			if (Arrays.binarySearch(blocks[b], size) >= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Analyzes one variant of the vcf file, keeps its cutoff and writes its results line
+	 * @param i the index of the variant in the vcf file
+	 * @param seq the position of the variant among the variants of this shard, the order the results are written in
+	 * @param goi the gene of interest
+	 */
+	private void analyzeAndWrite(int i, int seq, String goi) {
+		processed.add(i);
+		int cutoff = analyzeVariant(variants.get(i), goi, i);
+		cutoffs.add(cutoff);
+		if (resultsWriter != null) {
+			String extra = lastSpread;
+			if (lastObserved != null) {
+				extra = extra == null ? lastObserved : extra + "\t" + lastObserved;
+			}
+			resultsWriter.write(seq, i, variants.get(i), cutoff, lastSampleCount, extra);
+		}
+	}
+	
+	/**
+	 * Method to find the distribution of a gene of interest for one structural variant
+	 * and the 95th percentile cutoff of that distribution
+	 * @param v the structural variant
+	 * @param goi the gene of interest
+	 * @return the cutoff, or 0 if the size of the variant cannot be sampled
+	 */
+	public int analyzeVariant(SVSize v, String goi) {
+		return analyzeVariant(v, goi, -1);
+	}
+	
+	/**
+	 * Method to find the distribution of a gene of interest for one structural variant
+	 * and the 95th percentile cutoff of that distribution, writing the distribution to
+	 * the row of the variant in the count matrix if one is set, and comparing the distribution
+	 * to the observed count of the variant if the observed counts are set
+	 * @param v the structural variant
+	 * @param goi the gene of interest
+	 * @param index the index of the variant in the vcf file, or -1 to not write it to the count matrix or compare its observed count
+	 * @return the cutoff, or 0 if the size of the variant cannot be sampled
+	 */
+	public int analyzeVariant(SVSize v, String goi, int index) {
+		int [] goiDist = null;
+		// A size the replay store does not have yet is sampled even if it is cached, so its windows are recorded
+		if (cache != null && seeded && sweep == null && (replayStore == null || replayStore.contains(v.getSize(), seed))) {
+			goiDist = cache.lookup(v.getSize(), goi, dist.NUMBER_OF_SAMPLES, seed);
+		}
+		boolean cached = goiDist != null;
+		
+		try {
+			if (cached) {
+				System.err.println("Variant " + v.getID() + " of size " + v.getSize() + " found in cache");
+			} else if (sweep != null) {
+				goiDist = sweep.getDist(v.getSize());
+				if (goiDist == null) {
+					throw new IllegalArgumentException("The size " + v.getSize() + " was not sampled by the sweep");
+				}
+			} else if (seeded) {
+				// Keep the windows for other genes of interest the first time a size is sampled with this seed
+				SampleReplayStore.Recording recording = null;
+				if (replayStore != null && !replayStore.contains(v.getSize(), seed)) {
+					recording = replayStore.startRecording(v.getSize(), seed);
+				}
+				dist.setRecording(recording);
+				goiDist = dist.getDist(v.getSize(), goi, "var_" + v.getID() + "_" + v.getSize() + "_" + goi,
+						new Random(variantSeed(seed, v.getSize())));
+				dist.setRecording(null);
+				if (recording != null) {
+					recording.finish();
+				}
+			} else {
+				goiDist = dist.getDist(v.getSize(), goi, "var_" + v.getID() + "_" + v.getSize() + "_" + goi);
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(e);
+			System.err.println("Variant " + v.getID() + " has a size that cannot be sampled");
+			System.err.println("Skipping variant " + v.getID() + ", sorry 'bout it");
+			lastSampleCount = 0;
+			lastSpread = null;
+			lastObserved = observedColumns(index, null);
+			return 0;
+		}
+		lastSpread = null;
+		if (!cached && sweep == null && dist.getPlacement() != null) {
+			lastSpread = replicateSpread(goiDist, dist.getPlacement());
+		}
+		if (countMatrix != null && index >= 0) {
+			countMatrix.writeRow(index, goiDist);
+		}
+		Arrays.sort(goiDist);
+		int index95 = calculatePercentile(95.0, goiDist);
+		int cutoffVal95 = goiDist[index95];
+		lastSampleCount = goiDist.length;
+		lastObserved = observedColumns(index, goiDist);
+		if (aggregate != null) {
+			aggregate.add(goiDist);
+			// The observed total is over the same variants as the distribution of the total
+			if (observedCounts != null && index >= 0) {
+				if (observedCounts[index] == ObservedCounts.UNKNOWN) {
+					observedTotalKnown = false;
+				} else {
+					observedTotal += observedCounts[index];
+				}
+			}
+		}
+		if (!cached && sweep == null) {
+			if (cache != null && seeded) {
+				cache.store(v.getSize(), goi, seed, goiDist, cutoffVal95);
+			}
+			dist.writeSampleList(p + "_var_" + v.getID() + "_" + v.getSize() + "_" + goi + "_samples.txt");
+		}
+		return cutoffVal95;
+	}
+	
+	/**
+	 * Finds the observed count of a variant and its empirical p-value against the distribution of its size
+	 * @param index the index of the variant in the vcf file, or -1 if it has none
+	 * @param sortedDist the sorted distribution of the variant, or null if it could not be sampled
+	 * @return the observed count and the p-value, tab delimited with NA for what is not known,
+	 * or null if there are no observed counts
+	 */
+	private String observedColumns(int index, int[] sortedDist) {
+		if (observedCounts == null || index < 0) {
+			return null;
 		}
+		int observed = observedCounts[index];
+		if (observed == ObservedCounts.UNKNOWN) {
+			return "NA\tNA";
+		}
+		if (sortedDist == null) {
+			return observed + "\tNA";
+		}
+		return observed + "\t" + ObservedCounts.empiricalPValue(sortedDist, observed);
+	}
+	
+	/**
+	 * Estimates the standard errors of the cutoff and the mean count from the spread of the
+	 * replicates of a placed distribution
+	 * @param goiDist the counts of the gene of interest in the order the samples were placed
+	 * @param placement the placement the distribution was sampled with
+	 * @return the standard error of the cutoff, the mean count and the standard error of the mean, tab delimited
+	 */
+	private String replicateSpread(int[] goiDist, WindowPlacement placement) {
+		int replicates = placement.getReplicates();
+		int perReplicate = placement.getSamplesPerReplicate();
+		double [] cutoff = new double[replicates];
+		double [] mean = new double[replicates];
+		
+		for (int r = 0; r < replicates; r++) {
+			int [] block = Arrays.copyOfRange(goiDist, r * perReplicate, (r + 1) * perReplicate);
+			for (int i = 0; i < block.length; i++) {
+				mean[r] += (double)block[i] / block.length;
+			}
+			Arrays.sort(block);
+			cutoff[r] = block[calculatePercentile(95.0, block)];
+		}
+		
+		// The cutoff and mean of all the samples is close to the average over the replicates
+		double [] cutoffSpread = meanAndStandardError(cutoff);
+		double [] meanSpread = meanAndStandardError(mean);
+		return String.format("%.4f\t%.4f\t%.4f", cutoffSpread[1], meanSpread[0], meanSpread[1]);
+	}
+	
+	/**
+	 * Calculates the mean of independent values and its standard error
+	 * @param vals the values
+	 * @return a double array of size 2: the mean and the standard error of the mean
+	 */
+	private static double[] meanAndStandardError(double[] vals) {
+		double mean = 0;
+		for (int i = 0; i < vals.length; i++) {
+			mean += vals[i] / vals.length;
+		}
+		double squares = 0;
+		for (int i = 0; i < vals.length; i++) {
+			squares += (vals[i] - mean) * (vals[i] - mean);
+		}
+		double [] result = {mean, Math.sqrt(squares / (vals.length - 1) / vals.length)};
+		return result;
 	}
 	
 	/**
@@ -60,12 +326,133 @@ public class VariantAnalyzer {
 	 * @param counts the int[] of counts of the goi
 	 * @return the index in the int[] of the percentile cutoff value
 	 */
-	private int calculatePercentile(double percentile, int[] counts) {
+	public static int calculatePercentile(double percentile, int[] counts) {
 		if (percentile <= 0 || percentile > 100.0) {
 			throw new IllegalArgumentException("percentile must be >0 and <= 100");
 		}
 		double index = percentile / 100.0 * counts.length;
-		return (int)Math.ceil(index);
+		return Math.min((int)Math.ceil(index), counts.length - 1);
+	}
+	
+	/**
+	 * Derives the seed of the random stream used for one structural variant size.
+	 * The stream only depends on the run seed and the size, so a variant draws the same
+	 * samples whichever shard or process it ends up in
+	 * @param runSeed the seed of the whole run
+	 * @param size the size of the structural variant
+	 * @return the seed for the random stream of that size
+	 */
+	public static long variantSeed(long runSeed, int size) {
+		// SplitMix64 finalizer to spread neighbouring sizes over unrelated streams
+		long z = runSeed + 0x9E3779B97F4A7C15L * (size + 1L);
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+	
+	/**
+	 * Sets the seed of the run. Once set, every variant draws its samples from its own
+	 * stream derived from this seed, so repeated runs give identical results
+	 * @param runSeed the seed of the run
+	 */
+	public void setSeed(long runSeed) {
+		seed = runSeed;
+		seeded = true;
+	}
+	
+	/**
+	 * Restricts the experiment to one shard of the variants. Variant i of the vcf file
+	 * belongs to shard (i % count)
+	 * @param index the shard to process, from 0 to count - 1
+	 * @param count the total number of shards
+	 */
+	public void setShard(int index, int count) {
+		if (count < 1 || index < 0 || index >= count) {
+			throw new IllegalArgumentException("shard must be of the form index/count with 0 <= index < count");
+		}
+		shardIndex = index;
+		shardCount = count;
+	}
+	
+	/**
+	 * Sets the cache that distributions are looked up in before sampling and stored in after.
+	 * The cache is only used once the run has a seed, since unseeded distributions cannot be reproduced
+	 * @param resultCache the cache to use, or null to always sample
+	 */
+	public void setCache(ResultCache resultCache) {
+		cache = resultCache;
+	}
+	
+	/**
+	 * Sets the writer that the result of each variant is written to as soon as it is finished
+	 * @param writer the writer to use, or null to only keep the results in memory
+	 */
+	public void setResultsWriter(ResultsWriter writer) {
+		resultsWriter = writer;
+	}
+	
+	/**
+	 * Sets the aggregate test that the distribution of every sampled variant is added to
+	 * @param test the aggregate test to add to, or null to only find per-variant cutoffs
+	 */
+	public void setAggregateTest(AggregateTest test) {
+		aggregate = test;
+	}
+	
+	/**
+	 * Sets the sweep that samples every size of the experiment from one shared pool of anchors.
+	 * Distributions from a sweep are neither cached nor written as sample lists
+	 * @param sharedSweep the sweep to use, or null to sample each variant on its own
+	 */
+	public void setSweep(SharedAnchorSweep sharedSweep) {
+		sweep = sharedSweep;
+	}
+	
+	/**
+	 * Sets the store that the windows of every sampled distribution are written to, so other
+	 * genes of interest can be counted in them later. Only seeded distributions are stored
+	 * @param store the store to write to, or null to not keep the windows
+	 */
+	public void setReplayStore(SampleReplayStore store) {
+		replayStore = store;
+	}
+	
+	/**
+	 * Sets the count matrix that the distribution of every sampled variant is written to, in the order
+	 * its samples were drawn, before the distribution is sorted for the cutoff
+	 * @param matrix the count matrix to write to, or null to not keep the distributions
+	 */
+	public void setCountMatrix(CountMatrixWriter matrix) {
+		countMatrix = matrix;
+	}
+	
+	/**
+	 * Sets the counts of the gene of interest at the real coordinates of every variant. Once set, the
+	 * results of each variant end with its observed count and the empirical p-value of that count
+	 * @param counts the observed count of each variant of the vcf file, in vcf order, or null to not compare
+	 */
+	public void setObservedCounts(int[] counts) {
+		observedCounts = counts;
+	}
+	
+	/**
+	 * Getter for the observed total of the gene of interest over the variants the last experiment added to the aggregate test
+	 * @return the sum of their observed counts, or null if the observed counts are not set or one of those variants
+	 * is on a contig that is not in the genome
+	 */
+	public Integer getObservedTotal() {
+		if (observedCounts == null || !observedTotalKnown) {
+			return null;
+		}
+		return observedTotal;
+	}
+	
+	/**
+	 * Getter for the number of samples the last cutoff was based on
+	 * @return the number of samples, 0 if the last variant could not be sampled
+	 */
+	public int getLastSampleCount() {
+		return lastSampleCount;
 	}
 	
 	/**
@@ -77,4 +464,15 @@ public class VariantAnalyzer {
 		return cutoffs;
 	}
 	
+	/**
+	 * Getter for the indices in the vcf file of the variants processed by the last experiment.
+	 * Entry i of this list is the variant that cutoff i belongs to, in the order the variants were processed,
+	 * which is by block of sizes rather than vcf order when the sizes of a sweep are run in several blocks
+	 * NOTE this list gets overwritten every time the runExperiment() method is called
+	 * @return an ArrayList<Integer> of the processed variant indices
+	 */
+	public ArrayList<Integer> getProcessedIndices() {
+		return processed;
+	}
+	
 } // end class VariantAnalyzer
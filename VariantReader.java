@@ -4,21 +4,45 @@
  */
 
 import java.io.BufferedWriter;
-import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.HashSet;
 
 public class VariantReader {
 
+	/**
+	 * Defines how the lines of a chunk of the vcf file are parsed into variants
+	 * @author Stephen Pollo
+	 */
+	private static class VcfChunkParser implements ChunkedFileParser.LineParser<ArrayList<SVSize>> {
+		
+		public ArrayList<SVSize> newResult() {
+			return new ArrayList<SVSize>();
+		}
+		
+		public void parseLine(ArrayList<SVSize> chunk, byte[] data, int start, int end) {
+			if (end == start) {
+				// Empty line, skip
+				return;
+			}
+			SVSize v = VariantReader.parseLine(new String(data, start, end - start, StandardCharsets.UTF_8));
+			if (v != null) {
+				chunk.add(v);
+			}
+		}
+	}
+	
 	private ArrayList<SVSize> variants = new ArrayList<SVSize>();
 	
 	/**
 	 * Main constructor. Reads the structural variants and parses the id and size of each
 	 * @param vcfFile the vcf file containing the structural variants
+	 * @throws UncheckedIOException if the vcf file cannot be found or read
 	 */
 	public VariantReader(String vcfFile) {
 		
@@ -27,44 +51,55 @@ public class VariantReader {
 		 * Catch exceptions thrown if errors occur
 		 */
 		try {
-			File vcf = new File(vcfFile);
-		    Scanner in = new Scanner(vcf);
-		    String line;
-		    String [] vals;
-		    
-		    while (in.hasNextLine()) {
-		    	line = in.nextLine();
-		    	
-		    	if (line.charAt(0) == '#') {
-		    		// Comment line, skip
-		    		continue;
-		    	} else {
-		    		vals = line.split("\t");
-		    		
-		    		String s = vals[7].substring(vals[7].indexOf("SVLEN=") + 6);
-		    		s = s.substring(0, s.indexOf(';'));
-		    		int size = Integer.parseInt(s);
-		    		size = Math.abs(size);
-		    		String svID = vals[2];
-		    		SVSize v = new SVSize(svID, size);
-		    		variants.add(v);
-		    	}
-		    	
-		    } // end while reading file
-		    
-		    in.close();
+			// Chunks of the file are parsed in parallel and joined in file order
+			ArrayList<ArrayList<SVSize>> chunks = ChunkedFileParser.parse(vcfFile, new VcfChunkParser());
+			
+			for (int i = 0; i < chunks.size(); i++) {
+				variants.addAll(chunks.get(i));
+			}
 		} // end file reading try block
 
 		/*
-		 * Print the error if one was found and terminate
-		 * the program
+		 * Pass the error on to the caller, which decides
+		 * whether the program should stop
 		 */
 		catch(FileNotFoundException e) {
-			e.toString();
-			System.exit(1);
+			throw new UncheckedIOException("Could not find the vcf file " + vcfFile, e);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not read the vcf file " + vcfFile, e);
 		}
 	} // end constructor
 	
+	/**
+	 * Parses the id, size and position of the structural variant on one line of the vcf file
+	 * @param line a line of the vcf file
+	 * @return the variant, or null if the line is a comment
+	 */
+	public static SVSize parseLine(String line) {
+		if (line.charAt(0) == '#') {
+			// Comment line, skip
+			return null;
+		}
+		String [] vals = line.split("\t");
+		
+		String s = vals[7].substring(vals[7].indexOf("SVLEN=") + 6);
+		s = s.substring(0, s.indexOf(';'));
+		int size = Integer.parseInt(s);
+		size = Math.abs(size);
+		String svID = vals[2];
+		
+		// END is optional, insertions and breakends often leave it out
+		int pos = Integer.parseInt(vals[1]);
+		int end = pos;
+		String info = ";" + vals[7];
+		int endAt = info.indexOf(";END=");
+		if (endAt >= 0) {
+			int endStop = info.indexOf(';', endAt + 5);
+			end = Integer.parseInt(endStop < 0 ? info.substring(endAt + 5) : info.substring(endAt + 5, endStop));
+		}
+		return new SVSize(svID, size, vals[0], pos, end);
+	}
+	
 	/**
 	 * Debugging method. Prints the contents of the variants ArrayList
 	 */
@@ -82,6 +117,20 @@ public class VariantReader {
 		return variants;
 	}
 	
+	/**
+	 * Getter for the contigs of the variants read from the file
+	 * @return the CHROM names of the variants
+	 */
+	public HashSet<String> getContigs() {
+		HashSet<String> contigs = new HashSet<String>();
+		for (int i = 0; i < variants.size(); i++) {
+			if (variants.get(i).getChr() != null) {
+				contigs.add(variants.get(i).getChr());
+			}
+		}
+		return contigs;
+	}
+	
 	/**
 	 * Debugging method to write the variants results to a file
 	 * @param logName the name of the log file to write
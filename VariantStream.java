@@ -0,0 +1,91 @@
+/**
+ * Class to read the structural variants of a vcf file one at a time, so a vcf file
+ * of any length can be analyzed without holding all of its variants in memory
+ * @author Stephen Pollo
+ */
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+public class VariantStream implements Iterator<SVSize>, AutoCloseable {
+	
+	private BufferedReader in;
+	private SVSize next = null;
+	private int nextIndex = 0; // index in the vcf file of the next variant
+	
+	/**
+	 * Constructor
+	 * @param vcfFile the vcf file containing the structural variants
+	 * @throws UncheckedIOException if the vcf file cannot be found
+	 */
+	public VariantStream(String vcfFile) {
+		
+		/*
+		 * Attempt to open the file provided.
+		 * Catch exceptions thrown if errors occur
+		 */
+		try {
+			in = new BufferedReader(new FileReader(vcfFile));
+		} catch (FileNotFoundException e) {
+			throw new UncheckedIOException("Could not find the vcf file " + vcfFile, e);
+		}
+		readAhead();
+	}
+	
+	/**
+	 * Reads lines until the next variant is found or the file ends
+	 */
+	private void readAhead() {
+		next = null;
+		try {
+			String line = in.readLine();
+			while (line != null) {
+				if (!line.isEmpty()) {
+					next = VariantReader.parseLine(line);
+					if (next != null) {
+						return;
+					}
+				}
+				line = in.readLine();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	public boolean hasNext() {
+		return next != null;
+	}
+	
+	public SVSize next() {
+		if (next == null) {
+			throw new NoSuchElementException();
+		}
+		SVSize v = next;
+		nextIndex++;
+		readAhead();
+		return v;
+	}
+	
+	/**
+	 * Getter for the index in the vcf file of the variant the next call to next() returns
+	 * @return the index of the next variant, starting at 0
+	 */
+	public int getNextIndex() {
+		return nextIndex;
+	}
+	
+	public void close() {
+		try {
+			in.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+} // end class VariantStream
@@ -0,0 +1,98 @@
+/**
+ * Class to place the windows of a distribution over the valid start positions of the genome
+ * more evenly than independent uniform draws. The samples are split into replicates; within
+ * each replicate the positions are either stratified (one jittered position per equal stratum)
+ * or a van der Corput sequence with a random shift. Each replicate on its own is an unbiased
+ * sample of uniform placement, so the spread of a statistic across replicates estimates its
+ * variance
+ * @author Stephen Pollo
+ */
+
+import java.util.Random;
+
+public class WindowPlacement {
+	
+	public static final String STRATIFIED = "stratified";
+	public static final String SEQUENCE = "sequence";
+	public static final int DEFAULT_REPLICATES = 10;
+	
+	private boolean stratified;
+	private int replicates;
+	private int perReplicate;
+	private double [] shifts;
+	private Random rand;
+	
+	/**
+	 * Constructor
+	 * @param mode STRATIFIED or SEQUENCE
+	 * @param replicateCount the number of independent replicates the samples of a distribution are split into
+	 */
+	public WindowPlacement(String mode, int replicateCount) {
+		if (!STRATIFIED.equals(mode) && !SEQUENCE.equals(mode)) {
+			throw new IllegalArgumentException("Window placement must be " + STRATIFIED + " or " + SEQUENCE);
+		}
+		if (replicateCount < 2) {
+			throw new IllegalArgumentException("At least two replicates are needed to estimate the variance");
+		}
+		stratified = STRATIFIED.equals(mode);
+		replicates = replicateCount;
+	}
+	
+	/**
+	 * Starts the placement of a new distribution
+	 * @param samples the number of samples of the distribution, a multiple of the number of replicates
+	 * @param random the random number generator to jitter or shift the positions with
+	 */
+	public void start(int samples, Random random) {
+		if (samples % replicates != 0) {
+			throw new IllegalArgumentException("The number of samples " + samples + " must be a multiple of the " + replicates + " replicates");
+		}
+		perReplicate = samples / replicates;
+		rand = random;
+		shifts = new double[replicates];
+		for (int r = 0; r < replicates; r++) {
+			shifts[r] = stratified ? 0 : rand.nextDouble();
+		}
+	}
+	
+	/**
+	 * Getter for the position of one sample. Samples must be asked for in order when stratified,
+	 * since each position draws its jitter from the random number generator
+	 * @param i the index of the sample in the distribution
+	 * @return the position of the sample, in [0, 1) over the valid starts of the genome
+	 */
+	public double getPosition(int i) {
+		int j = i % perReplicate;
+		if (stratified) {
+			return (j + rand.nextDouble()) / perReplicate;
+		}
+		double u = vanDerCorput(j) + shifts[i / perReplicate];
+		return u - Math.floor(u);
+	}
+	
+	/**
+	 * Radical inverse of an index in base 2
+	 * @param index the index in the sequence
+	 * @return the index with its binary digits mirrored around the point, in [0, 1)
+	 */
+	private static double vanDerCorput(int index) {
+		return (Integer.reverse(index) >>> 1) / (double)(1L << 31);
+	}
+	
+	/**
+	 * Getter for the number of replicates
+	 * @return the number of replicates the samples are split into
+	 */
+	public int getReplicates() {
+		return replicates;
+	}
+	
+	/**
+	 * Getter for the number of samples in each replicate of the current distribution
+	 * @return the number of samples per replicate. Replicate r is samples r * perReplicate to (r + 1) * perReplicate - 1
+	 */
+	public int getSamplesPerReplicate() {
+		return perReplicate;
+	}
+	
+} // end class WindowPlacement